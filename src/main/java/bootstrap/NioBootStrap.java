@@ -3,6 +3,7 @@ package bootstrap;
 import java.net.SocketAddress;
 
 import buffer.ByteBuf;
+import buffer.ByteBufAllocator;
 import channel.BaseChannel;
 import channel.ChannelFuture;
 import channel.ChannelInitializer;
@@ -16,10 +17,30 @@ public abstract class NioBootStrap {
   protected ChannelInitializer channelInitializer;
   protected ChannelInitializer childInitializer;
 
+  // Allocator of channel IO buffers. By default it prefers direct buffers.
+  protected ByteBufAllocator allocator = ByteBufAllocator.DEFAULT;
+
+  // A channel becomes unwritable when its pending outbound bytes exceed the high water mark, and
+  // writable again when they drop below the low water mark.
+  protected int writeBufferLowWaterMark = 32 * 1024;
+  protected int writeBufferHighWaterMark = 64 * 1024;
+
   public EventLoopGroup getEventLoopGroup() {
     return eventLoopGroup;
   }
 
+  public ByteBufAllocator getAllocator() {
+    return allocator;
+  }
+
+  public int getWriteBufferLowWaterMark() {
+    return writeBufferLowWaterMark;
+  }
+
+  public int getWriteBufferHighWaterMark() {
+    return writeBufferHighWaterMark;
+  }
+
   public NioBootStrap group(EventLoopGroup boss, EventLoopGroup worker) {
     this.serverGroup = boss;
     this.eventLoopGroup = worker;
@@ -41,6 +62,21 @@ public abstract class NioBootStrap {
     return this;
   }
 
+  public NioBootStrap allocator(ByteBufAllocator allocator) {
+    this.allocator = allocator;
+    return this;
+  }
+
+  public NioBootStrap writeBufferWaterMark(int low, int high) {
+    if (low < 0 || high < low) {
+      throw new IllegalArgumentException(
+          "Require 0 <= low <= high, but got low = " + low + ", high = " + high);
+    }
+    this.writeBufferLowWaterMark = low;
+    this.writeBufferHighWaterMark = high;
+    return this;
+  }
+
   public BaseChannel channel() {
     return this.channel;
   }
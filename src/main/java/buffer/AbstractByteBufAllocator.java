@@ -0,0 +1,76 @@
+package buffer;
+
+import java.nio.ByteBuffer;
+
+import buffer.ByteBuf;
+import buffer.ByteBufAllocator;
+import buffer.CompositeByteBuf;
+
+// Base class of allocators. Sub-classes only decide where the underlying ByteBuffer memory comes
+// from and where it goes after the ByteBuf owning it is released or grows.
+public abstract class AbstractByteBufAllocator implements ByteBufAllocator {
+  private final boolean preferDirect;
+
+  protected AbstractByteBufAllocator(boolean preferDirect) {
+    this.preferDirect = preferDirect;
+  }
+
+  @Override
+  public ByteBuf buffer() {
+    return buffer(ByteBuf.DEFAULT_CAPACITY);
+  }
+
+  @Override
+  public ByteBuf buffer(int initialCapacity) {
+    return newBuffer(initialCapacity, preferDirect);
+  }
+
+  @Override
+  public ByteBuf heapBuffer() {
+    return heapBuffer(ByteBuf.DEFAULT_CAPACITY);
+  }
+
+  @Override
+  public ByteBuf heapBuffer(int initialCapacity) {
+    return newBuffer(initialCapacity, false);
+  }
+
+  @Override
+  public ByteBuf directBuffer() {
+    return directBuffer(ByteBuf.DEFAULT_CAPACITY);
+  }
+
+  @Override
+  public ByteBuf directBuffer(int initialCapacity) {
+    return newBuffer(initialCapacity, true);
+  }
+
+  @Override
+  public CompositeByteBuf compositeBuffer() {
+    return compositeBuffer(CompositeByteBuf.DEFAULT_MAX_NUM_COMPONENTS);
+  }
+
+  @Override
+  public CompositeByteBuf compositeBuffer(int maxNumComponents) {
+    return new CompositeByteBuf(this, maxNumComponents);
+  }
+
+  @Override
+  public boolean preferDirect() {
+    return preferDirect;
+  }
+
+  private ByteBuf newBuffer(int initialCapacity, boolean direct) {
+    if (initialCapacity < 0) {
+      throw new IllegalArgumentException("initialCapacity must be >= 0: " + initialCapacity);
+    }
+    return new ByteBuf(
+        this, allocateMemory(Math.max(initialCapacity, ByteBuf.DEFAULT_CAPACITY), direct));
+  }
+
+  // Returns a cleared ByteBuffer of at least the given capacity.
+  abstract ByteBuffer allocateMemory(int capacity, boolean direct);
+
+  // Takes back memory returned by allocateMemory(). The memory must not be used afterwards.
+  abstract void freeMemory(ByteBuffer memory);
+}
@@ -6,38 +6,174 @@ import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
 import java.nio.ReadOnlyBufferException;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 import org.apache.log4j.Logger;
 
+import buffer.IllegalReferenceCountException;
+import buffer.ReferenceCounted;
+import buffer.ResourceLeakDetector;
+import buffer.ResourceLeakTracker;
+
 // This class is wrapper of java.nio.ByteBuffer. It supports flexible read and write operation,
 // and no flip() is needed. Capacity is auto incremented when more space is needed.
 //
 // Internally, this buffer keeps two indexes for readings and writings separately.
 //
-// This class is NOT thread-safe.
-public class ByteBuf {
-  private static final int DEFAULT_CAPACITY = 64;
+// Memory of the buffer comes from a ByteBufAllocator. The buffer is reference counted, and the
+// memory is given back to the allocator when the reference count drops to 0. See ReferenceCounted.
+// Buffers that are never released are reported by the ResourceLeakDetector.
+//
+// This class is NOT thread-safe, except for retain() and release().
+public class ByteBuf implements ReferenceCounted {
+  static final int DEFAULT_CAPACITY = 64;
   private static final int CAPACITY_INC_THRESHOLD = 4194304;
 
   private static final Logger log = Logger.getLogger(ByteBuf.class);
 
-  private ByteBuffer internal;
+  private static final AtomicIntegerFieldUpdater<ByteBuf> refCntUpdater =
+      AtomicIntegerFieldUpdater.newUpdater(ByteBuf.class, "refCnt");
+
+  static final ResourceLeakDetector leakDetector = new ResourceLeakDetector("ByteBuf");
+
+  private final AbstractByteBufAllocator allocator;
+
+  // Package-private for CompositeByteBuf, which reads the memory of its components directly.
+  ByteBuffer internal;
   private int capacity = 0;
   private int writeIndex = 0;
 
   private int mark = -1;
 
-  private ByteBuf() {
-    this.capacity = DEFAULT_CAPACITY;
-    this.internal = ByteBuffer.allocate(this.capacity);
+  // Cached by internalNioBuffer(), reset when memory changes.
+  private ByteBuffer tmpNioBuf;
+
+  private volatile int refCnt = 1;
+
+  // Set once a view of this buffer is created. Views do not retain this buffer, so the reference
+  // count can not tell whether one still reads the memory.
+  private boolean hasViews;
+
+  // Non-null only if this buffer is sampled by the leak detector.
+  private final ResourceLeakTracker leak;
+
+  ByteBuf(AbstractByteBufAllocator allocator, ByteBuffer memory) {
+    this(allocator, memory, true);
+  }
+
+  // For sub-classes. memory is null if the sub-class does not own memory itself, in which case it
+  // must override all methods accessing the memory.
+  ByteBuf(AbstractByteBufAllocator allocator, ByteBuffer memory, boolean trackLeak) {
+    this.allocator = allocator;
+    this.internal = memory;
+    this.capacity = memory != null ? memory.capacity() : 0;
+    this.leak = trackLeak ? leakDetector.track(this) : null;
   }
 
+  // Allocate a heap buffer from the default allocator.
   public static ByteBuf alloc() {
-    return new ByteBuf();
+    return ByteBufAllocator.DEFAULT.heapBuffer();
+  }
+
+  // Allocate a direct buffer from the default allocator. Direct buffers are cheaper for socket IO,
+  // but more expensive to allocate if they are not pooled.
+  public static ByteBuf allocDirect() {
+    return ByteBufAllocator.DEFAULT.directBuffer();
+  }
+
+  public ByteBufAllocator allocator() {
+    return allocator;
   }
 
+  public boolean isDirect() {
+    return internal.isDirect();
+  }
+
+  // Reset indexes. The memory is kept for later writes.
   public void clear() {
-    this.capacity = DEFAULT_CAPACITY;
-    this.internal = ByteBuffer.allocate(this.capacity);
+    this.internal.clear();
+    this.writeIndex = 0;
+    this.mark = -1;
+  }
+
+  @Override
+  public int refCnt() {
+    return refCnt;
+  }
+
+  @Override
+  public ByteBuf retain() {
+    return retain(1);
+  }
+
+  @Override
+  public ByteBuf retain(int increment) {
+    if (increment <= 0) {
+      throw new IllegalArgumentException("increment must be > 0: " + increment);
+    }
+    while (true) {
+      int crt = refCnt;
+      if (crt <= 0 || crt + increment < crt) {
+        throw new IllegalReferenceCountException(crt, increment);
+      }
+      if (refCntUpdater.compareAndSet(this, crt, crt + increment)) {
+        if (leak != null) {
+          leak.record();
+        }
+        return this;
+      }
+    }
+  }
+
+  @Override
+  public boolean release() {
+    return release(1);
+  }
+
+  @Override
+  public boolean release(int decrement) {
+    if (decrement <= 0) {
+      throw new IllegalArgumentException("decrement must be > 0: " + decrement);
+    }
+    while (true) {
+      int crt = refCnt;
+      if (crt < decrement) {
+        throw new IllegalReferenceCountException(crt, -decrement);
+      }
+      if (refCntUpdater.compareAndSet(this, crt, crt - decrement)) {
+        if (leak != null) {
+          leak.record();
+        }
+        if (crt == decrement) {
+          deallocate();
+          return true;
+        }
+        return false;
+      }
+    }
+  }
+
+  @Override
+  public ByteBuf touch() {
+    return touch(null);
+  }
+
+  @Override
+  public ByteBuf touch(Object hint) {
+    if (leak != null) {
+      leak.record(hint);
+    }
+    return this;
+  }
+
+  // Return the memory of this buffer to its allocator.
+  void deallocate() {
+    if (leak != null) {
+      leak.close();
+    }
+    allocator.freeMemory(internal);
+    this.internal = null;
+    this.tmpNioBuf = null;
+    this.capacity = 0;
     this.writeIndex = 0;
     this.mark = -1;
   }
@@ -46,6 +182,122 @@ public class ByteBuf {
     return writeIndex - internal.position();
   }
 
+  public int writableBytes() {
+    return capacity - writeIndex;
+  }
+
+  public int readIndex() {
+    return internal.position();
+  }
+
+  public int writeIndex() {
+    return writeIndex;
+  }
+
+  public ByteBuf skipBytes(int length) throws BufferUnderflowException {
+    int readable = readableBytes();
+    if (readable < length) {
+      log.error("buffer readableBytes = " + readable + ", but trying to skip " + length);
+      throw new BufferUnderflowException();
+    }
+    internal.position(internal.position() + length);
+    return this;
+  }
+
+  // ------------------------------------ Derived Buffers --------------------------------------- //
+  // A derived buffer is a view sharing memory with this buffer, with its own indexes. It has no
+  // reference count of its own: retain() and release() on it change the count of this buffer. So a
+  // view must not be used after this buffer is deallocated, and a view handed to others should be
+  // retained, e.g. by readRetainedSlice(). Views can not grow. When this buffer grows, its views
+  // keep the old memory, which is then left to GC instead of going back to the allocator.
+
+  // View of bytes in [index, index + length). Its read index is 0 and write index is length.
+  public ByteBuf slice(int index, int length) throws IndexOutOfBoundsException {
+    if (index < 0 || length < 0 || index + length > writeIndex) {
+      throw new IndexOutOfBoundsException(
+          "slice(" + index + ", " + length + ") out of write index " + writeIndex);
+    }
+    ByteBuffer region = internal.duplicate();
+    region.limit(index + length);
+    region.position(index);
+    ByteBuf view = new DerivedByteBuf(allocator, this, region.slice());
+    view.writeIndex = length;
+    hasViews = true;
+    return view;
+  }
+
+  public ByteBuf retainedSlice(int index, int length) throws IndexOutOfBoundsException {
+    return slice(index, length).retain();
+  }
+
+  // Slice of the next length readable bytes, which are skipped in this buffer.
+  public ByteBuf readSlice(int length) throws BufferUnderflowException {
+    int readable = readableBytes();
+    if (readable < length) {
+      log.error("buffer readableBytes = " + readable + ", but trying to slice " + length);
+      throw new BufferUnderflowException();
+    }
+    ByteBuf slice = slice(readIndex(), length);
+    skipBytes(length);
+    return slice;
+  }
+
+  public ByteBuf readRetainedSlice(int length) throws BufferUnderflowException {
+    return readSlice(length).retain();
+  }
+
+  // View of the whole buffer, starting with the same indexes as this buffer.
+  public ByteBuf duplicate() {
+    return duplicateFrom(0);
+  }
+
+  // View of memory from position start on, with indexes of this buffer less start. For
+  // CompositeByteBuf, whose indexes are offset from those of its components.
+  ByteBuf duplicateFrom(int start) {
+    ByteBuffer memory = internal.duplicate();
+    memory.limit(capacity);
+    memory.position(start);
+    ByteBuf view = new DerivedByteBuf(allocator, this, memory.slice());
+    view.internal.position(internal.position() - start);
+    view.writeIndex = writeIndex - start;
+    hasViews = true;
+    return view;
+  }
+
+  // Readable bytes as a ByteBuffer sharing memory with this buffer. Indexes are not changed.
+  public ByteBuffer nioBuffer() {
+    return nioBuffers()[0];
+  }
+
+  // Same as nioBuffer(), but may be split into several ByteBuffers, see nioBufferCount().
+  public ByteBuffer[] nioBuffers() {
+    ByteBuffer data = internal.duplicate();
+    data.limit(writeIndex);
+    return new ByteBuffer[] {data};
+  }
+
+  // Number of ByteBuffers returned by nioBuffers(). It is 1 unless the buffer is composite.
+  public int nioBufferCount() {
+    return 1;
+  }
+
+  // Same as nioBuffer(), but always returns the same ByteBuffer object instead of allocating one.
+  // It is only valid until the next call, and meant for IO done right away, e.g. by the channel.
+  public ByteBuffer internalNioBuffer() {
+    if (tmpNioBuf == null) {
+      tmpNioBuf = internal.duplicate();
+    }
+    tmpNioBuf.clear();
+    tmpNioBuf.limit(writeIndex);
+    tmpNioBuf.position(internal.position());
+    return tmpNioBuf;
+  }
+
+  // If the buffer can allocate more memory when it is full.
+  boolean isGrowable() {
+    return true;
+  }
+
   public int markReadIndex() {
     this.mark = internal.position();
     return this.mark;
@@ -60,6 +312,11 @@ public class ByteBuf {
     return false;
   }
 
+  // Drop the mark without moving the read index.
+  public void unmarkReadIndex() {
+    this.mark = -1;
+  }
+
   public byte get() throws BufferUnderflowException {
     if (readableBytes() < 1) {
       log.error("No readable byte in the buffer");
@@ -195,14 +452,18 @@ public class ByteBuf {
 
   public ByteBuf put(ByteBuf other) {
     int dataLength = other.readableBytes();
-
-    ByteBuffer data = other.internal;
-    data.limit(other.writeIndex);
-
     ensureWritable(dataLength);
     markReadIndex();
     internal.position(writeIndex);
-    internal.put(data);
+    if (other.internal != null) {
+      ByteBuffer data = other.internal;
+      data.limit(other.writeIndex);
+      internal.put(data);
+    } else {
+      for (ByteBuffer data : other.nioBuffers()) {
+        internal.put(data);
+      }
+    }
     writeIndex += dataLength;
     resetReadIndex();
 
@@ -276,35 +537,28 @@ public class ByteBuf {
     return this;
   }
 
+  // Read once from channel straight into the writable bytes of this buffer. The buffer grows first
+  // if it is full. Returns number of bytes read, or -1 if the channel is closed by the other end or
+  // broken.
   public int readFromChannel(SocketChannel channel) {
-    int totalBytesRead = 0;
-    ByteBuffer tmp = ByteBuffer.allocate(1024);
-    while (true) {
-      int readLength = 0;
-      try {
-        readLength = channel.read(tmp);
-        if (readLength == 0) {
-          break;
-        }
-        if (readLength < 0) {
-          if (totalBytesRead == 0) {
-            // Reach EOF, channel is close by the other end.
-            return -1;
-          }
-          return totalBytesRead;
-        }
-      } catch (IOException e) {
-        e.printStackTrace();
-        break;
-      }
-      tmp.flip();
+    if (writeIndex == capacity) {
+      ensureWritable(Math.max(DEFAULT_CAPACITY, readableBytes()));
+    }
 
-      // Copy data from tmp to internal ByteBuffer.
-      put(tmp);
-      tmp.clear();
-      totalBytesRead += readLength;
+    int readIndex = internal.position();
+    try {
+      internal.position(writeIndex);
+      int readLength = channel.read(internal);
+      if (readLength > 0) {
+        writeIndex += readLength;
+      }
+      return readLength;
+    } catch (IOException e) {
+      e.printStackTrace();
+      return -1;
+    } finally {
+      internal.position(readIndex);
     }
-    return totalBytesRead;
   }
 
   public int writeToChannel(SocketChannel channel) {
@@ -323,19 +577,28 @@ public class ByteBuf {
     if (writeIndex + needLength <= capacity) {
       return;
     }
+    if (!isGrowable()) {
+      log.error("buffer writable bytes = " + (capacity - writeIndex) + ", but trying to write " +
+                needLength);
+      throw new BufferOverflowException();
+    }
 
     int newCapacity = calculateNewCapacity(needLength);
-    ByteBuffer newBuffer = ByteBuffer.allocate(newCapacity);
+    ByteBuffer newBuffer = allocator.allocateMemory(newCapacity, internal.isDirect());
 
-    // Copy remaining data to new buffer.
+    // Copy remaining data to new buffer, and give the old memory back to allocator.
     internal.limit(writeIndex);
     newBuffer.put(internal);
     this.writeIndex = newBuffer.position();
     newBuffer.position(0);
-    newBuffer.limit(newCapacity);
+    // Views may still read the old memory, so leave it to GC in that case.
+    if (!hasViews) {
+      allocator.freeMemory(internal);
+    }
 
     this.internal = newBuffer;
-    this.capacity = newCapacity;
+    this.tmpNioBuf = null;
+    this.capacity = newBuffer.capacity();
   }
 
   private int calculateNewCapacity(int needLength) {
@@ -0,0 +1,33 @@
+package buffer;
+
+import buffer.ByteBuf;
+import buffer.CompositeByteBuf;
+import buffer.PooledByteBufAllocator;
+
+// Factory of ByteBuf. Memory of a buffer goes back to the allocator that created it once the
+// buffer is released.
+//
+// A buffer is either backed by heap memory (ByteBuffer.allocate) or by direct memory
+// (ByteBuffer.allocateDirect). Direct buffers are preferred for socket IO, since the JDK copies heap
+// buffers through a temporary direct buffer on every read and write.
+public interface ByteBufAllocator {
+  // Pooled allocator that prefers direct buffers.
+  ByteBufAllocator DEFAULT = PooledByteBufAllocator.DEFAULT;
+
+  // Allocate a direct buffer if the allocator prefers direct buffers, or a heap buffer otherwise.
+  ByteBuf buffer();
+  ByteBuf buffer(int initialCapacity);
+
+  ByteBuf heapBuffer();
+  ByteBuf heapBuffer(int initialCapacity);
+
+  ByteBuf directBuffer();
+  ByteBuf directBuffer(int initialCapacity);
+
+  // Empty composite buffer. See CompositeByteBuf.
+  CompositeByteBuf compositeBuffer();
+  CompositeByteBuf compositeBuffer(int maxNumComponents);
+
+  // If buffer() returns direct buffers.
+  boolean preferDirect();
+}
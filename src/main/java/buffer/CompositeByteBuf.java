@@ -0,0 +1,532 @@
+package buffer;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.log4j.Logger;
+
+import buffer.AbstractByteBufAllocator;
+import buffer.ByteBuf;
+
+// A ByteBuf made of several component ByteBufs. Readable bytes of the components are read one
+// after another as if they were in a single buffer, without being copied.
+//
+// Components are owned by this buffer after being added. They are released when this buffer is
+// deallocated, or by discardReadComponents() once they are fully read. Writes go to the last
+// component, or to a new buffer from the allocator if there is no component.
+//
+// Locating an index is a binary search over components, so components are merged into one buffer
+// once there are more than maxNumComponents of them.
+//
+// This class is NOT thread-safe, except for retain() and release().
+public class CompositeByteBuf extends ByteBuf {
+  static final int DEFAULT_MAX_NUM_COMPONENTS = 16;
+
+  private static final Logger log = Logger.getLogger(CompositeByteBuf.class);
+
+  private final int maxNumComponents;
+  private final List<Component> components = new ArrayList<Component>();
+
+  private int readIndex = 0;
+  private int writeIndex = 0;
+  private int mark = -1;
+
+  // Component of the last read, so that sequential reads need no search.
+  private int lastAccessed = 0;
+
+  private static final class Component {
+    final ByteBuf buf;
+    // Index of the first byte of this component in the composite buffer.
+    int offset;
+
+    Component(ByteBuf buf, int offset) {
+      this.buf = buf;
+      this.offset = offset;
+    }
+
+    // Position of the first byte in buf's memory. Components are read by absolute index, so their
+    // read index only changes when the last component compacts itself on growing.
+    int base() {
+      return buf.internal.position();
+    }
+
+    int end() {
+      return offset + buf.readableBytes();
+    }
+  }
+
+  CompositeByteBuf(AbstractByteBufAllocator allocator, int maxNumComponents) {
+    super(allocator, null, false);
+    if (maxNumComponents < 2) {
+      throw new IllegalArgumentException("maxNumComponents must be >= 2: " + maxNumComponents);
+    }
+    this.maxNumComponents = maxNumComponents;
+  }
+
+  // Append readable bytes of buf to this buffer, taking ownership of buf.
+  public CompositeByteBuf addComponent(ByteBuf buf) {
+    if (buf.internal == null) {
+      // Another composite buffer; its components are not reused.
+      ByteBuf copy = allocator().buffer(buf.readableBytes());
+      copy.put(buf);
+      buf.release();
+      buf = copy;
+    }
+    if (buf.readableBytes() == 0) {
+      buf.release();
+      return this;
+    }
+
+    components.add(new Component(buf, writeIndex));
+    writeIndex += buf.readableBytes();
+    if (components.size() > maxNumComponents) {
+      consolidate(firstUsedIndex());
+    }
+    return this;
+  }
+
+  public int numComponents() {
+    return components.size();
+  }
+
+  // Release components that are fully read. Indexes are shifted to stay on the same bytes.
+  public CompositeByteBuf discardReadComponents() {
+    int discardIndex = firstUsedIndex();
+    int n = 0;
+    while (n < components.size() && components.get(n).end() <= discardIndex) {
+      components.get(n).buf.release();
+      n++;
+    }
+    if (n == 0) {
+      return this;
+    }
+
+    int removed = n < components.size() ? components.get(n).offset : writeIndex;
+    components.subList(0, n).clear();
+    for (Component c : components) {
+      c.offset -= removed;
+    }
+    readIndex -= removed;
+    writeIndex -= removed;
+    if (mark >= 0) {
+      mark -= removed;
+    }
+    lastAccessed = 0;
+    return this;
+  }
+
+  // Bytes before this index are not read anymore.
+  private int firstUsedIndex() {
+    return mark >= 0 ? Math.min(mark, readIndex) : readIndex;
+  }
+
+  // Copy bytes from start into a single component. Bytes before start are dropped.
+  private void consolidate(int start) {
+    consolidate(start, false);
+  }
+
+  // If aligned is set, bytes are put at the same positions in the merged memory as their indexes
+  // in this buffer, with zeros before start.
+  private void consolidate(int start, boolean aligned) {
+    ByteBuf merged = allocator().buffer(aligned ? writeIndex : writeIndex - start);
+    if (aligned) {
+      merged.put(new byte[start]);
+      merged.skipBytes(start);
+    }
+    for (ByteBuffer region : nioBuffers(start, writeIndex - start)) {
+      merged.put(region);
+    }
+    for (Component c : components) {
+      c.buf.release();
+    }
+    components.clear();
+    components.add(new Component(merged, start));
+    lastAccessed = 0;
+  }
+
+  // Index of the component containing index, which must be readable.
+  private int componentIndex(int index) {
+    if (lastAccessed < components.size()) {
+      Component c = components.get(lastAccessed);
+      if (index >= c.offset && index < c.end()) {
+        return lastAccessed;
+      }
+    }
+
+    int low = 0;
+    int high = components.size() - 1;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      if (components.get(mid).offset <= index) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+    lastAccessed = low;
+    return low;
+  }
+
+  // Bytes in [index, index + length) as ByteBuffers sharing memory with components.
+  private ByteBuffer[] nioBuffers(int index, int length) {
+    List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+    int i = length > 0 ? componentIndex(index) : 0;
+    while (length > 0) {
+      Component c = components.get(i++);
+      int local = index - c.offset;
+      int n = Math.min(length, c.buf.readableBytes() - local);
+      ByteBuffer region = c.buf.internal.duplicate();
+      region.limit(c.base() + local + n);
+      region.position(c.base() + local);
+      buffers.add(region);
+      index += n;
+      length -= n;
+    }
+    return buffers.toArray(new ByteBuffer[buffers.size()]);
+  }
+
+  @Override
+  public ByteBuffer[] nioBuffers() {
+    return nioBuffers(readIndex, readableBytes());
+  }
+
+  @Override
+  public int nioBufferCount() {
+    if (readableBytes() == 0) {
+      return 0;
+    }
+    return componentIndex(writeIndex - 1) - componentIndex(readIndex) + 1;
+  }
+
+  @Override
+  public ByteBuffer internalNioBuffer() {
+    return nioBuffer();
+  }
+
+  @Override
+  void deallocate() {
+    for (Component c : components) {
+      c.buf.release();
+    }
+    components.clear();
+    readIndex = 0;
+    writeIndex = 0;
+    mark = -1;
+    lastAccessed = 0;
+  }
+
+  @Override
+  public boolean isDirect() {
+    if (components.isEmpty()) {
+      return allocator().preferDirect();
+    }
+    for (Component c : components) {
+      if (!c.buf.isDirect()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  // Release all components and reset indexes.
+  @Override
+  public void clear() {
+    deallocate();
+  }
+
+  @Override
+  public int readableBytes() {
+    return writeIndex - readIndex;
+  }
+
+  // Writable bytes of the last component. Writing more makes it grow.
+  @Override
+  public int writableBytes() {
+    return components.isEmpty() ? 0 : components.get(components.size() - 1).buf.writableBytes();
+  }
+
+  @Override
+  public int readIndex() {
+    return readIndex;
+  }
+
+  @Override
+  public int writeIndex() {
+    return writeIndex;
+  }
+
+  @Override
+  public ByteBuf skipBytes(int length) throws BufferUnderflowException {
+    checkReadable(length, "bytes");
+    readIndex += length;
+    return this;
+  }
+
+  // Slice of the component containing the bytes. Unlike slices of other buffers, it shares the
+  // reference count of the component rather than this buffer, so that the component stays valid
+  // after this buffer discards it. Components are merged first if the bytes span several of them.
+  @Override
+  public ByteBuf slice(int index, int length) throws IndexOutOfBoundsException {
+    if (index < 0 || length < 0 || index + length > writeIndex) {
+      throw new IndexOutOfBoundsException(
+          "slice(" + index + ", " + length + ") out of write index " + writeIndex);
+    }
+    writeTarget();
+    int i = length > 0 ? componentIndex(index) : components.size() - 1;
+    Component c = components.get(i);
+    if (index < c.offset || index + length > c.end()) {
+      consolidate(Math.min(index, firstUsedIndex()));
+      c = components.get(0);
+    }
+    return c.buf.slice(c.base() + index - c.offset, length);
+  }
+
+  // Duplicate of the last component, with the same indexes as this buffer. It shares the
+  // reference count of the component like slice(). Components are merged first if the readable
+  // bytes span several of them, or if the memory of the last one does not start early enough to
+  // share indexes, e.g. after an earlier merge dropped read bytes.
+  @Override
+  public ByteBuf duplicate() {
+    writeTarget();
+    int i = readableBytes() > 0 ? componentIndex(readIndex) : components.size() - 1;
+    Component c = components.get(components.size() - 1);
+    if (i != components.size() - 1 || c.base() < c.offset) {
+      consolidate(firstUsedIndex(), true);
+      c = components.get(0);
+    }
+    ByteBuf view = c.buf.duplicateFrom(c.base() - c.offset);
+    view.skipBytes(readIndex - c.offset);
+    return view;
+  }
+
+  @Override
+  public ByteBuffer nioBuffer() {
+    ByteBuffer[] buffers = nioBuffers();
+    if (buffers.length == 1) {
+      return buffers[0];
+    }
+    if (buffers.length == 0) {
+      return ByteBuffer.allocate(0);
+    }
+    consolidate(firstUsedIndex());
+    return nioBuffers()[0];
+  }
+
+  @Override
+  public int markReadIndex() {
+    this.mark = readIndex;
+    return this.mark;
+  }
+
+  @Override
+  public boolean resetReadIndex() {
+    if (this.mark >= 0) {
+      readIndex = this.mark;
+      this.mark = -1;
+      return true;
+    }
+    return false;
+  }
+
+  // Components before the read index can be discarded again once the mark is dropped.
+  @Override
+  public void unmarkReadIndex() {
+    this.mark = -1;
+  }
+
+  private void checkReadable(int length, String type) throws BufferUnderflowException {
+    int readable = readableBytes();
+    if (readable < length) {
+      log.error("buffer readableBytes = " + readable + ", but trying to read " + type +
+                " of length " + length);
+      throw new BufferUnderflowException();
+    }
+  }
+
+  @Override
+  public byte get() throws BufferUnderflowException {
+    if (readableBytes() < 1) {
+      log.error("No readable byte in the buffer");
+      throw new BufferUnderflowException();
+    }
+    Component c = components.get(componentIndex(readIndex));
+    byte b = c.buf.internal.get(c.base() + readIndex - c.offset);
+    readIndex++;
+    return b;
+  }
+
+  @Override
+  public ByteBuf get(byte[] dst) throws BufferUnderflowException {
+    return get(dst, 0, dst.length);
+  }
+
+  @Override
+  public ByteBuf get(byte[] dst, int offset, int length)
+      throws IndexOutOfBoundsException, BufferUnderflowException {
+    checkReadable(length, "bytes");
+    for (ByteBuffer region : nioBuffers(readIndex, length)) {
+      int n = region.remaining();
+      region.get(dst, offset, n);
+      offset += n;
+    }
+    readIndex += length;
+    return this;
+  }
+
+  // Read a big-endian number of size bytes, which may span components.
+  private long getNumber(int size, String type) throws BufferUnderflowException {
+    checkReadable(size, type);
+    Component c = components.get(componentIndex(readIndex));
+    int local = readIndex - c.offset;
+    if (c.buf.readableBytes() - local < size) {
+      long value = 0;
+      for (int i = 0; i < size; i++) {
+        value = (value << 8) | (get() & 0xff);
+      }
+      return value;
+    }
+
+    int pos = c.base() + local;
+    readIndex += size;
+    switch (size) {
+      case 2:
+        return c.buf.internal.getShort(pos);
+      case 4:
+        return c.buf.internal.getInt(pos);
+      default:
+        return c.buf.internal.getLong(pos);
+    }
+  }
+
+  @Override
+  public char getChar() throws BufferUnderflowException {
+    return (char)getNumber(2, "char");
+  }
+
+  @Override
+  public double getDouble() throws BufferUnderflowException {
+    return Double.longBitsToDouble(getNumber(8, "double"));
+  }
+
+  @Override
+  public float getFloat() throws BufferUnderflowException {
+    return Float.intBitsToFloat((int)getNumber(4, "float"));
+  }
+
+  @Override
+  public int getInt() throws BufferUnderflowException {
+    return (int)getNumber(4, "int");
+  }
+
+  @Override
+  public long getLong() throws BufferUnderflowException {
+    return getNumber(8, "long");
+  }
+
+  @Override
+  public short getShort() throws BufferUnderflowException {
+    return (short)getNumber(2, "short");
+  }
+
+  // Component that receives writes.
+  private ByteBuf writeTarget() {
+    if (components.isEmpty()) {
+      components.add(new Component(allocator().buffer(), writeIndex));
+    }
+    return components.get(components.size() - 1).buf;
+  }
+
+  private CompositeByteBuf updateWriteIndex() {
+    writeIndex = components.get(components.size() - 1).end();
+    return this;
+  }
+
+  @Override
+  public ByteBuf put(byte b) {
+    writeTarget().put(b);
+    return updateWriteIndex();
+  }
+
+  @Override
+  public ByteBuf put(byte[] src) {
+    writeTarget().put(src);
+    return updateWriteIndex();
+  }
+
+  @Override
+  public ByteBuf put(byte[] src, int offset, int length) throws IndexOutOfBoundsException {
+    writeTarget().put(src, offset, length);
+    return updateWriteIndex();
+  }
+
+  @Override
+  public ByteBuf put(ByteBuffer buf) {
+    writeTarget().put(buf);
+    return updateWriteIndex();
+  }
+
+  @Override
+  public ByteBuf put(ByteBuf other) {
+    writeTarget().put(other);
+    return updateWriteIndex();
+  }
+
+  @Override
+  public ByteBuf putChar(char value) {
+    writeTarget().putChar(value);
+    return updateWriteIndex();
+  }
+
+  @Override
+  public ByteBuf putDouble(double value) {
+    writeTarget().putDouble(value);
+    return updateWriteIndex();
+  }
+
+  @Override
+  public ByteBuf putFloat(float value) {
+    writeTarget().putFloat(value);
+    return updateWriteIndex();
+  }
+
+  @Override
+  public ByteBuf putInt(int value) {
+    writeTarget().putInt(value);
+    return updateWriteIndex();
+  }
+
+  @Override
+  public ByteBuf putLong(long value) {
+    writeTarget().putLong(value);
+    return updateWriteIndex();
+  }
+
+  @Override
+  public ByteBuf putShort(short value) {
+    writeTarget().putShort(value);
+    return updateWriteIndex();
+  }
+
+  @Override
+  public int readFromChannel(SocketChannel channel) {
+    int bytesRead = writeTarget().readFromChannel(channel);
+    updateWriteIndex();
+    return bytesRead;
+  }
+
+  // Write all components with a single gathering write.
+  @Override
+  public int writeToChannel(SocketChannel channel) {
+    try {
+      int written = (int)channel.write(nioBuffers());
+      readIndex += written;
+      return written;
+    } catch (IOException e) {
+      e.printStackTrace();
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,45 @@
+package buffer;
+
+import java.nio.ByteBuffer;
+
+import buffer.AbstractByteBufAllocator;
+import buffer.ByteBuf;
+
+// A view sharing memory with another ByteBuf, created by ByteBuf.slice() and ByteBuf.duplicate().
+// Reference counting is delegated to the buffer owning the memory.
+final class DerivedByteBuf extends ByteBuf {
+  private final ByteBuf parent;
+
+  DerivedByteBuf(AbstractByteBufAllocator allocator, ByteBuf parent, ByteBuffer memory) {
+    super(allocator, memory, false);
+    // Views of views share the count of the buffer owning the memory.
+    this.parent = parent instanceof DerivedByteBuf ? ((DerivedByteBuf)parent).parent : parent;
+  }
+
+  @Override
+  public int refCnt() {
+    return parent.refCnt();
+  }
+
+  @Override
+  public ByteBuf retain(int increment) {
+    parent.retain(increment);
+    return this;
+  }
+
+  @Override
+  public boolean release(int decrement) {
+    return parent.release(decrement);
+  }
+
+  @Override
+  public ByteBuf touch(Object hint) {
+    parent.touch(hint);
+    return this;
+  }
+
+  @Override
+  boolean isGrowable() {
+    return false;
+  }
+}
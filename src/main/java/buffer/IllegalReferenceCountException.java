@@ -0,0 +1,10 @@
+package buffer;
+
+// Thrown when a ReferenceCounted object is retained or released after it is already deallocated.
+public class IllegalReferenceCountException extends IllegalStateException {
+  private static final long serialVersionUID = 1L;
+
+  public IllegalReferenceCountException(int refCnt, int delta) {
+    super("refCnt: " + refCnt + ", " + (delta > 0 ? "increment: " + delta : "decrement: " + -delta));
+  }
+}
@@ -0,0 +1,64 @@
+package buffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A PoolArena keeps one free list per size class. It is shared by many threads, so each size class
+// is guarded by its own lock; threads that allocate the same size rarely contend with threads
+// allocating a different size.
+//
+// An arena manages either heap or direct memory, never both.
+final class PoolArena {
+  // Upper bound of memory an arena caches for a single size class.
+  private static final int MAX_CACHED_BYTES_PER_SIZE_CLASS = 8 * 1024 * 1024;
+
+  private static final class SizeClass {
+    private final int size;
+    private final int maxCached;
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<ByteBuffer>();
+
+    SizeClass(int size) {
+      this.size = size;
+      this.maxCached = Math.max(1, MAX_CACHED_BYTES_PER_SIZE_CLASS / size);
+    }
+  }
+
+  private final SizeClass[] sizeClasses;
+  final boolean direct;
+
+  // Number of PoolThreadCaches bound to this arena. Used to spread threads evenly.
+  final AtomicInteger numThreadCaches = new AtomicInteger();
+
+  PoolArena(int numSizeClasses, boolean direct) {
+    this.direct = direct;
+    this.sizeClasses = new SizeClass[numSizeClasses];
+    for (int i = 0; i < numSizeClasses; i++) {
+      sizeClasses[i] = new SizeClass(PooledByteBufAllocator.sizeOf(i));
+    }
+  }
+
+  ByteBuffer allocate(int sizeIdx) {
+    SizeClass sizeClass = sizeClasses[sizeIdx];
+    ByteBuffer memory;
+    synchronized(sizeClass) {
+      memory = sizeClass.free.poll();
+    }
+    if (memory == null) {
+      return direct ?
+          ByteBuffer.allocateDirect(sizeClass.size) : ByteBuffer.allocate(sizeClass.size);
+    }
+    memory.clear();
+    return memory;
+  }
+
+  void free(int sizeIdx, ByteBuffer memory) {
+    SizeClass sizeClass = sizeClasses[sizeIdx];
+    synchronized(sizeClass) {
+      // If this size class is already full, simply drop the memory and let GC reclaim it.
+      if (sizeClass.free.size() < sizeClass.maxCached) {
+        sizeClass.free.push(memory);
+      }
+    }
+  }
+}
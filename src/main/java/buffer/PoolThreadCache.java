@@ -0,0 +1,99 @@
+package buffer;
+
+import java.nio.ByteBuffer;
+
+// Per-thread cache in front of a heap PoolArena and a direct PoolArena. It is only touched by the
+// thread owning it, so no locking is needed. Memory that does not fit in the cache goes back to the
+// arena.
+final class PoolThreadCache {
+  // Upper bound of memory a thread caches for a single size class.
+  private static final int MAX_CACHED_BYTES_PER_SIZE_CLASS = 512 * 1024;
+  private static final int MAX_CACHED_ENTRIES_PER_SIZE_CLASS = 256;
+
+  // Free memory of a single arena, one stack per size class.
+  private static final class Stacks {
+    private final PoolArena arena;
+    private final ByteBuffer[][] entries;
+    private final int[] counts;
+
+    Stacks(PoolArena arena, int numSizeClasses) {
+      this.arena = arena;
+      this.entries = new ByteBuffer[numSizeClasses][];
+      this.counts = new int[numSizeClasses];
+      for (int i = 0; i < numSizeClasses; i++) {
+        int size = PooledByteBufAllocator.sizeOf(i);
+        entries[i] = new ByteBuffer[Math.max(1, Math.min(MAX_CACHED_ENTRIES_PER_SIZE_CLASS,
+                                                         MAX_CACHED_BYTES_PER_SIZE_CLASS / size))];
+      }
+      arena.numThreadCaches.incrementAndGet();
+    }
+
+    ByteBuffer allocate(int sizeIdx) {
+      int count = counts[sizeIdx];
+      if (count == 0) {
+        return arena.allocate(sizeIdx);
+      }
+      ByteBuffer[] stack = entries[sizeIdx];
+      ByteBuffer memory = stack[--count];
+      stack[count] = null;
+      counts[sizeIdx] = count;
+      memory.clear();
+      return memory;
+    }
+
+    void free(int sizeIdx, ByteBuffer memory) {
+      int count = counts[sizeIdx];
+      ByteBuffer[] stack = entries[sizeIdx];
+      if (count == stack.length) {
+        // Cache of this size class is full.
+        arena.free(sizeIdx, memory);
+        return;
+      }
+      stack[count] = memory;
+      counts[sizeIdx] = count + 1;
+    }
+
+    void freeAll() {
+      for (int i = 0; i < entries.length; i++) {
+        ByteBuffer[] stack = entries[i];
+        for (int j = 0; j < counts[i]; j++) {
+          arena.free(i, stack[j]);
+          stack[j] = null;
+        }
+        counts[i] = 0;
+      }
+      arena.numThreadCaches.decrementAndGet();
+    }
+  }
+
+  final PooledByteBufAllocator allocator;
+
+  private final Stacks heap;
+  private final Stacks direct;
+
+  PoolThreadCache(PooledByteBufAllocator allocator, PoolArena heapArena, PoolArena directArena,
+                  int numSizeClasses) {
+    this.allocator = allocator;
+    this.heap = new Stacks(heapArena, numSizeClasses);
+    this.direct = new Stacks(directArena, numSizeClasses);
+  }
+
+  // Take memory of the size class from the cache, or from the arena if the cache is empty.
+  ByteBuffer allocate(int sizeIdx, boolean isDirect) {
+    return isDirect ? direct.allocate(sizeIdx) : heap.allocate(sizeIdx);
+  }
+
+  void free(int sizeIdx, ByteBuffer memory) {
+    if (memory.isDirect()) {
+      direct.free(sizeIdx, memory);
+    } else {
+      heap.free(sizeIdx, memory);
+    }
+  }
+
+  // Move all cached memory back to the arenas. Called when the owning thread exits.
+  void freeAll() {
+    heap.freeAll();
+    direct.freeAll();
+  }
+}
@@ -0,0 +1,158 @@
+package buffer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import buffer.AbstractByteBufAllocator;
+import buffer.PoolArena;
+import buffer.PoolThreadCache;
+
+// Allocator that recycles the memory of released buffers instead of leaving it to GC.
+//
+// Memory is handed out in power-of-two size classes, from 64 bytes up to 4MB. Freed memory goes
+// back to the free list of its size class, which has two levels:
+//
+//   - PoolArena is shared by threads. There are several arenas so that threads spread over them.
+//     Heap and direct memory are kept in separate arenas.
+//   - PoolThreadCache is owned by a single thread and needs no locking. Only threads that called
+//     attachThreadCache() have one. Every EventLoop does this when it starts.
+//
+// Requests larger than the biggest size class are not pooled.
+//
+// This class is thread-safe.
+public class PooledByteBufAllocator extends AbstractByteBufAllocator {
+  public static final PooledByteBufAllocator DEFAULT = new PooledByteBufAllocator();
+
+  private static final int MIN_SIZE_SHIFT = 6;   // 64 bytes
+  private static final int MAX_SIZE_SHIFT = 22;  // 4MB
+  private static final int NUM_SIZE_CLASSES = MAX_SIZE_SHIFT - MIN_SIZE_SHIFT + 1;
+  static final int MAX_POOLED_CAPACITY = 1 << MAX_SIZE_SHIFT;
+
+  // Caches created on the current thread, for all allocators. Non-null only if the thread called
+  // attachThreadCache().
+  private static final ThreadLocal<List<PoolThreadCache>> attachedCaches =
+      new ThreadLocal<List<PoolThreadCache>>();
+
+  private final PoolArena[] heapArenas;
+  private final PoolArena[] directArenas;
+  private final ThreadLocal<PoolThreadCache> threadCache = new ThreadLocal<PoolThreadCache>();
+
+  public PooledByteBufAllocator() {
+    this(true);
+  }
+
+  public PooledByteBufAllocator(boolean preferDirect) {
+    this(preferDirect, 2 * Runtime.getRuntime().availableProcessors());
+  }
+
+  public PooledByteBufAllocator(boolean preferDirect, int numArenas) {
+    super(preferDirect);
+    if (numArenas <= 0) {
+      throw new IllegalArgumentException("numArenas must be > 0: " + numArenas);
+    }
+    this.heapArenas = new PoolArena[numArenas];
+    this.directArenas = new PoolArena[numArenas];
+    for (int i = 0; i < numArenas; i++) {
+      heapArenas[i] = new PoolArena(NUM_SIZE_CLASSES, false);
+      directArenas[i] = new PoolArena(NUM_SIZE_CLASSES, true);
+    }
+  }
+
+  // Enable thread caches on the current thread. It should be only called by long-living threads
+  // that allocate and release a lot of buffers, and must be paired with detachThreadCache() before
+  // the thread exits.
+  public static void attachThreadCache() {
+    if (attachedCaches.get() == null) {
+      attachedCaches.set(new ArrayList<PoolThreadCache>());
+    }
+  }
+
+  // Return all memory cached by the current thread to the arenas.
+  public static void detachThreadCache() {
+    List<PoolThreadCache> caches = attachedCaches.get();
+    if (caches == null) {
+      return;
+    }
+    for (PoolThreadCache cache : caches) {
+      cache.freeAll();
+      cache.allocator.threadCache.remove();
+    }
+    attachedCaches.remove();
+  }
+
+  // Index of the size class that fits capacity, or -1 if capacity is too large to be pooled.
+  static int sizeIndex(int capacity) {
+    if (capacity > MAX_POOLED_CAPACITY) {
+      return -1;
+    }
+    int shift = 32 - Integer.numberOfLeadingZeros(capacity - 1);
+    return Math.max(shift, MIN_SIZE_SHIFT) - MIN_SIZE_SHIFT;
+  }
+
+  static int sizeOf(int sizeIdx) {
+    return 1 << (sizeIdx + MIN_SIZE_SHIFT);
+  }
+
+  @Override
+  ByteBuffer allocateMemory(int capacity, boolean direct) {
+    int sizeIdx = sizeIndex(capacity);
+    if (sizeIdx < 0) {
+      return direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    PoolThreadCache cache = threadCache();
+    if (cache != null) {
+      return cache.allocate(sizeIdx, direct);
+    }
+    return threadArena(direct ? directArenas : heapArenas).allocate(sizeIdx);
+  }
+
+  @Override
+  void freeMemory(ByteBuffer memory) {
+    int capacity = memory.capacity();
+    int sizeIdx = sizeIndex(capacity);
+    if (sizeIdx < 0 || sizeOf(sizeIdx) != capacity) {
+      // Not allocated from the pool.
+      return;
+    }
+
+    PoolThreadCache cache = threadCache();
+    if (cache != null) {
+      cache.free(sizeIdx, memory);
+      return;
+    }
+    threadArena(memory.isDirect() ? directArenas : heapArenas).free(sizeIdx, memory);
+  }
+
+  private PoolThreadCache threadCache() {
+    PoolThreadCache cache = threadCache.get();
+    if (cache == null) {
+      List<PoolThreadCache> caches = attachedCaches.get();
+      if (caches == null) {
+        return null;
+      }
+      cache = new PoolThreadCache(
+          this, leastUsedArena(heapArenas), leastUsedArena(directArenas), NUM_SIZE_CLASSES);
+      threadCache.set(cache);
+      caches.add(cache);
+    }
+    return cache;
+  }
+
+  // Arena for threads that have no thread cache. Thread.getId() is deprecated since Java 19, so
+  // threads are spread by identity hash.
+  private static PoolArena threadArena(PoolArena[] arenas) {
+    return arenas[Math.floorMod(System.identityHashCode(Thread.currentThread()), arenas.length)];
+  }
+
+  private static PoolArena leastUsedArena(PoolArena[] arenas) {
+    PoolArena minArena = arenas[0];
+    for (int i = 1; i < arenas.length; i++) {
+      if (arenas[i].numThreadCaches.get() < minArena.numThreadCaches.get()) {
+        minArena = arenas[i];
+      }
+    }
+    return minArena;
+  }
+}
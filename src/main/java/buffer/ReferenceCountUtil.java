@@ -0,0 +1,45 @@
+package buffer;
+
+import org.apache.log4j.Logger;
+
+import buffer.ReferenceCounted;
+
+// Helpers for messages which may or may not be ReferenceCounted.
+public class ReferenceCountUtil {
+  private static final Logger log = Logger.getLogger(ReferenceCountUtil.class);
+
+  private ReferenceCountUtil() {}
+
+  // Retain msg if it is reference counted.
+  public static Object retain(Object msg) {
+    if (msg instanceof ReferenceCounted) {
+      ((ReferenceCounted)msg).retain();
+    }
+    return msg;
+  }
+
+  // Record access site of msg if it is reference counted. See ReferenceCounted.touch().
+  public static Object touch(Object msg, Object hint) {
+    if (msg instanceof ReferenceCounted) {
+      ((ReferenceCounted)msg).touch(hint);
+    }
+    return msg;
+  }
+
+  // Release msg if it is reference counted. Returns true if msg is deallocated.
+  public static boolean release(Object msg) {
+    if (msg instanceof ReferenceCounted) {
+      return ((ReferenceCounted)msg).release();
+    }
+    return false;
+  }
+
+  // Same as release(), but logs instead of throwing if msg was already deallocated.
+  public static void safeRelease(Object msg) {
+    try {
+      release(msg);
+    } catch (IllegalReferenceCountException e) {
+      log.warn("Failed to release a message: " + e.getMessage());
+    }
+  }
+}
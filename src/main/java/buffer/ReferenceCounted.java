@@ -0,0 +1,25 @@
+package buffer;
+
+// An object that needs explicit deallocation. It starts with a reference count of 1; retain()
+// increases the count and release() decreases it. The object is deallocated once the count reaches
+// 0, and must not be accessed anymore after that.
+//
+// Whoever consumes a reference counted message last is responsible for releasing it.
+public interface ReferenceCounted {
+  int refCnt();
+
+  ReferenceCounted retain();
+
+  ReferenceCounted retain(int increment);
+
+  // Returns true if the reference count reaches 0 and the object is deallocated.
+  boolean release();
+
+  boolean release(int decrement);
+
+  // Record the current access site of this object, which is printed if the object leaks. This is a
+  // no-op unless the object is tracked by a ResourceLeakDetector.
+  ReferenceCounted touch();
+
+  ReferenceCounted touch(Object hint);
+}
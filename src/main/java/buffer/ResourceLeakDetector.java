@@ -0,0 +1,208 @@
+package buffer;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import org.apache.log4j.Logger;
+
+import buffer.ResourceLeakTracker;
+
+// Detects objects that are garbage-collected without being released, e.g. a pooled ByteBuf whose
+// release() is never called so its memory never goes back to the pool.
+//
+// A sampled object is referenced weakly by a tracker. The tracker records where the object was
+// allocated and accessed, and is closed when the object is released. If the object is collected by
+// GC while its tracker is still open, the tracker is enqueued to a ReferenceQueue, and the records
+// are logged the next time an object is tracked.
+//
+// Level is read from system property "river.leakDetection.level" and can be changed by setLevel():
+//   - DISABLED: nothing is tracked.
+//   - SAMPLED:  one out of "river.leakDetection.samplingInterval" (default 128) objects is tracked.
+//               This is the default, and costs a random number per allocation.
+//   - PARANOID: every object is tracked. For debugging only.
+public class ResourceLeakDetector {
+  private static final Logger log = Logger.getLogger(ResourceLeakDetector.class);
+
+  public enum Level {
+    DISABLED,
+    SAMPLED,
+    PARANOID,
+  }
+
+  private static final int SAMPLING_INTERVAL =
+      Integer.getInteger("river.leakDetection.samplingInterval", 128);
+
+  // Max number of access records kept for a tracked object. The oldest records are dropped first,
+  // except for the allocation record.
+  private static final int MAX_RECORDS = 8;
+
+  private static volatile Level level = parseLevel(System.getProperty("river.leakDetection.level"));
+
+  private final String resourceType;
+  private final Set<DefaultResourceLeak> allLeaks =
+      ConcurrentHashMap.<DefaultResourceLeak>newKeySet();
+  private final ReferenceQueue<Object> refQueue = new ReferenceQueue<Object>();
+
+  public ResourceLeakDetector(String resourceType) {
+    this.resourceType = resourceType;
+  }
+
+  public static Level getLevel() {
+    return level;
+  }
+
+  public static void setLevel(Level newLevel) {
+    level = newLevel;
+  }
+
+  private static Level parseLevel(String value) {
+    if (value == null) {
+      return Level.SAMPLED;
+    }
+    try {
+      return Level.valueOf(value.trim().toUpperCase());
+    } catch (IllegalArgumentException e) {
+      log.warn("Unknown leak detection level " + value + ", use SAMPLED");
+      return Level.SAMPLED;
+    }
+  }
+
+  // Start tracking obj. Returns null if obj is not sampled.
+  public ResourceLeakTracker track(Object obj) {
+    Level crtLevel = level;
+    if (crtLevel == Level.DISABLED) {
+      return null;
+    }
+    if (crtLevel == Level.SAMPLED &&
+        ThreadLocalRandom.current().nextInt(SAMPLING_INTERVAL) != 0) {
+      return null;
+    }
+
+    reportLeaks();
+    return new DefaultResourceLeak(obj);
+  }
+
+  private void reportLeaks() {
+    DefaultResourceLeak ref;
+    while ((ref = (DefaultResourceLeak)refQueue.poll()) != null) {
+      // A tracker that is closed properly is not in allLeaks anymore.
+      if (ref.dispose()) {
+        reportLeak(ref.toString());
+      }
+    }
+  }
+
+  // Sub-classes may override this to report leaks in other ways.
+  protected void reportLeak(String records) {
+    log.error("LEAK: " + resourceType + ".release() was not called before it's garbage-collected." +
+              records);
+  }
+
+  // A stack trace of where a tracked object was allocated or accessed.
+  private static final class Record extends Throwable {
+    private static final long serialVersionUID = 1L;
+
+    private final String hint;
+    private final Record next;
+    private final int pos;
+
+    Record(Record next, Object hint) {
+      this.hint = hint != null ? hint.toString() : null;
+      this.next = next;
+      this.pos = next != null ? next.pos + 1 : 0;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      if (hint != null) {
+        sb.append("\n\tHint: ").append(hint);
+      }
+      for (StackTraceElement element : getStackTrace()) {
+        // Skip frames of the leak detector itself.
+        if (element.getClassName().startsWith(ResourceLeakDetector.class.getName())) {
+          continue;
+        }
+        sb.append("\n\t").append(element);
+      }
+      return sb.toString();
+    }
+  }
+
+  private final class DefaultResourceLeak
+      extends WeakReference<Object> implements ResourceLeakTracker {
+    // Records are a singly linked list, the latest one at head. The tail is the allocation record.
+    private volatile Record head;
+    private final Record allocation;
+
+    DefaultResourceLeak(Object referent) {
+      super(referent, refQueue);
+      this.allocation = new Record(null, null);
+      this.head = allocation;
+      allLeaks.add(this);
+    }
+
+    @Override
+    public void record() {
+      record(null);
+    }
+
+    @Override
+    public synchronized void record(Object hint) {
+      Record crtHead = head;
+      if (crtHead.pos >= MAX_RECORDS) {
+        // Drop all access records but the latest ones. Records are immutable, so rebuild the list.
+        crtHead = trim(crtHead, MAX_RECORDS / 2);
+      }
+      head = new Record(crtHead, hint);
+    }
+
+    // Keep the latest n records on top of the allocation record.
+    private Record trim(Record crtHead, int n) {
+      Record[] kept = new Record[n];
+      Record node = crtHead;
+      for (int i = 0; i < n && node != allocation; i++) {
+        kept[i] = node;
+        node = node.next;
+      }
+      Record newHead = allocation;
+      for (int i = n - 1; i >= 0; i--) {
+        if (kept[i] != null) {
+          Record copy = new Record(newHead, kept[i].hint);
+          copy.setStackTrace(kept[i].getStackTrace());
+          newHead = copy;
+        }
+      }
+      return newHead;
+    }
+
+    @Override
+    public boolean close() {
+      if (allLeaks.remove(this)) {
+        clear();
+        return true;
+      }
+      return false;
+    }
+
+    boolean dispose() {
+      clear();
+      return allLeaks.remove(this);
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      Record node = head;
+      int i = 1;
+      while (node != allocation) {
+        sb.append("\n#").append(i++).append(":").append(node);
+        node = node.next;
+      }
+      sb.append("\nCreated at:").append(allocation);
+      return sb.toString();
+    }
+  }
+}
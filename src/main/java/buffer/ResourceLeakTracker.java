@@ -0,0 +1,13 @@
+package buffer;
+
+// Tracks a single object that is sampled by ResourceLeakDetector.
+public interface ResourceLeakTracker {
+  // Record the current stack trace as an access site of the tracked object.
+  void record();
+
+  // Same as record(), with an additional hint printed in the leak report.
+  void record(Object hint);
+
+  // Called when the tracked object is deallocated properly. Returns false if it is already closed.
+  boolean close();
+}
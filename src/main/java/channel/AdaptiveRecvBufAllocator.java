@@ -0,0 +1,72 @@
+package channel;
+
+import buffer.ByteBuf;
+import buffer.ByteBufAllocator;
+
+// Predicts the size of the next read of a channel from recent reads, so that a read normally takes
+// a single syscall into a buffer that is neither too small nor wasting memory.
+//
+// Guesses are powers of two between minimum and maximum, the same size classes the pooled
+// allocator hands out. The guess grows fast: by 4x as soon as a read fills the whole buffer. It
+// shrinks slowly: by half only after two reads in a row would have fit into the smaller size.
+//
+// Each channel owns one instance. This class is NOT thread-safe.
+public class AdaptiveRecvBufAllocator {
+  static final int DEFAULT_MINIMUM = 64;
+  static final int DEFAULT_INITIAL = 2048;
+  static final int DEFAULT_MAXIMUM = 65536;
+
+  private static final int INDEX_INCREMENT = 2;
+  private static final int INDEX_DECREMENT = 1;
+
+  // Shift of the smallest and largest guess.
+  private final int minShift;
+  private final int maxShift;
+
+  private int shift;
+  private boolean decreaseNow = false;
+
+  public AdaptiveRecvBufAllocator() {
+    this(DEFAULT_MINIMUM, DEFAULT_INITIAL, DEFAULT_MAXIMUM);
+  }
+
+  public AdaptiveRecvBufAllocator(int minimum, int initial, int maximum) {
+    if (minimum <= 0 || initial < minimum || maximum < initial) {
+      throw new IllegalArgumentException(
+          "Require 0 < minimum <= initial <= maximum, but got " + minimum + ", " + initial + ", " +
+          maximum);
+    }
+    this.minShift = ceilShift(minimum);
+    this.maxShift = Math.max(minShift, 31 - Integer.numberOfLeadingZeros(maximum));
+    this.shift = Math.min(Math.max(ceilShift(initial), minShift), maxShift);
+  }
+
+  private static int ceilShift(int size) {
+    return 32 - Integer.numberOfLeadingZeros(size - 1);
+  }
+
+  // Size of the next read buffer.
+  public int guess() {
+    return 1 << shift;
+  }
+
+  public ByteBuf allocate(ByteBufAllocator alloc) {
+    return alloc.buffer(guess());
+  }
+
+  // Update the guess with the number of bytes just read.
+  public void record(int actualReadBytes) {
+    // At the minimum there is nothing to shrink to, and a full read must reach the grow branch.
+    if (shift > minShift && actualReadBytes <= 1 << (shift - INDEX_DECREMENT)) {
+      if (decreaseNow) {
+        shift = Math.max(shift - INDEX_DECREMENT, minShift);
+        decreaseNow = false;
+      } else {
+        decreaseNow = true;
+      }
+    } else if (actualReadBytes >= guess()) {
+      shift = Math.min(shift + INDEX_INCREMENT, maxShift);
+      decreaseNow = false;
+    }
+  }
+}
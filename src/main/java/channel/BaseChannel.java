@@ -6,14 +6,16 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 
 import buffer.ByteBuf;
+import buffer.ByteBufAllocator;
 import channel.ChannelExceptions;
 import channel.ChannelHandlerContext;
 import channel.ChannelPromise;
 import channel.NioChannel;
+import channel.VoidChannelPromise;
 import handler.ChannelHandler;
 import handler.ChannelHeaderHandler;
 import handler.ChannelTailHandler;
-import multithread.TaskExecutorGroup;
+import multithread.IExecutorGroup;
 import net.EventLoop;
 
 public abstract class BaseChannel implements NioChannel {
@@ -49,10 +51,47 @@ public abstract class BaseChannel implements NioChannel {
     this.header.link(new ChannelHandlerContext(this, handler));
   }
 
+  @Override
+  public void addInboundHandler(IExecutorGroup group, ChannelHandler handler) {
+    this.tail.getPrev().link(new ChannelHandlerContext(this, handler, group.next()));
+  }
+
+  @Override
+  public void addOutboundHandler(IExecutorGroup group, ChannelHandler handler) {
+    this.header.link(new ChannelHandlerContext(this, handler, group.next()));
+  }
+
+  // Called by EventLoop when it moves this channel to a new selector.
+  public void setSelectionKey(SelectionKey key) {
+    this.key = key;
+  }
+
   public EventLoop getEventLoop() {
     return this.eventLoop;
   }
 
+  // Allocator for buffers read from and written to this channel.
+  public ByteBufAllocator alloc() {
+    return ByteBufAllocator.DEFAULT;
+  }
+
+  // If data written now is flushed soon. It is false when too much outbound data is pending, see
+  // NioBootStrap.writeBufferWaterMark().
+  public boolean isWritable() {
+    return true;
+  }
+
+  // Bytes written to this channel and not yet written to socket.
+  public long pendingOutboundBytes() {
+    return 0;
+  }
+
+  // Bytes written to socket so far. Together with pendingOutboundBytes(), it tells if a channel is
+  // making progress in writing.
+  public long writtenBytes() {
+    return 0;
+  }
+
   public void awaitClose() throws Exception {
     this.closeFuture.sync();
   }
@@ -84,6 +123,26 @@ public abstract class BaseChannel implements NioChannel {
     return this;
   }
 
+  public BaseChannel fireChannelReadComplete() {
+    header.fireChannelReadComplete();
+    return this;
+  }
+
+  public BaseChannel fireChannelWritabilityChanged() {
+    header.fireChannelWritabilityChanged();
+    return this;
+  }
+
+  public BaseChannel fireUserEventTriggered(Object evt) {
+    header.fireUserEventTriggered(evt);
+    return this;
+  }
+
+  public BaseChannel fireExceptionCaught(Throwable cause) {
+    header.fireExceptionCaught(cause);
+    return this;
+  }
+
   // Outbound network events. They simply delegate the call to tail ChannelHandler, and propagate
   // it all the way down through the outbound pipeline, until eventually a doXXX() task is added to
   // in EventLoop.
@@ -99,14 +158,47 @@ public abstract class BaseChannel implements NioChannel {
     return tail.write(buf);
   }
 
+  public void write(ByteBuf buf, ChannelPromise promise) {
+    tail.write(buf, promise);
+  }
+
   public ChannelFuture flush() {
     return tail.flush();
   }
 
+  public void flush(ChannelPromise promise) {
+    tail.flush(promise);
+  }
+
+  public ChannelFuture writeAndFlush(ByteBuf buf) {
+    return tail.writeAndFlush(buf);
+  }
+
+  public void writeAndFlush(ByteBuf buf, ChannelPromise promise) {
+    tail.writeAndFlush(buf, promise);
+  }
+
+  // Pass it to write operations whose result is ignored, to save allocating a future for each.
+  public ChannelPromise voidPromise() {
+    return VoidChannelPromise.INSTANCE;
+  }
+
   public ChannelFuture close() {
     return tail.close();
   }
 
+  // Done when the channel is closed at the transport. A close() going through handlers bound to
+  // other executors completes it later than it returns.
+  public ChannelFuture closeFuture() {
+    return closeFuture;
+  }
+
+  // Close the channel at the transport right away, skipping handlers. For EventLoop to close
+  // channels whose close() did not get through the pipeline in time. Must run in EventLoop.
+  public void closeForcibly() {
+    doClose(voidPromise());
+  }
+
   // Handle IO events when SelectionKeys are active. This method is called inside event loop.
   public abstract void handleNetworkIOEvents() throws ChannelExceptions.UnexpectedException;
 
@@ -4,12 +4,14 @@ import java.net.SocketAddress;
 import org.apache.log4j.Logger;
 
 import buffer.ByteBuf;
+import buffer.ByteBufAllocator;
+import buffer.ReferenceCountUtil;
 import channel.BaseChannel;
 import channel.ChannelPromise;
 import channel.ChannelFuture;
+import channel.VoidChannelPromise;
 import handler.ChannelHandler;
 import multithread.SingleThreadExecutor;
-import multithread.TaskExecutor;
 
 public class ChannelHandlerContext {
   private static final Logger log = Logger.getLogger(ChannelHandlerContext.class);
@@ -20,11 +22,18 @@ public class ChannelHandlerContext {
   private ChannelHandlerContext prev;
   private ChannelHandlerContext next;
 
-  protected TaskExecutor executor;
+  // Runs the handler if set, otherwise EventLoop of the channel does.
+  protected SingleThreadExecutor executor;
 
   public ChannelHandlerContext(BaseChannel channel, ChannelHandler handler) {
+    this(channel, handler, null);
+  }
+
+  public ChannelHandlerContext(BaseChannel channel, ChannelHandler handler,
+                               SingleThreadExecutor executor) {
     this.channel = channel;
     this.handler = handler;
+    this.executor = executor;
   }
 
   public boolean isInbound() {
@@ -43,6 +52,14 @@ public class ChannelHandlerContext {
     return prev;
   }
 
+  public BaseChannel channel() {
+    return channel;
+  }
+
+  public ByteBufAllocator alloc() {
+    return channel.alloc();
+  }
+
   // Link a ChannelHandlerContext behind this one. If this one already has a next node, the new
   // ChannelHandlerContext will be insert between.
   protected void link(ChannelHandlerContext ctx) {
@@ -55,7 +72,8 @@ public class ChannelHandlerContext {
     }
   }
 
-  protected SingleThreadExecutor getExecutor() {
+  // Executor running the handler of this context.
+  public SingleThreadExecutor getExecutor() {
     if (executor != null) {
       return executor;
     } else {
@@ -98,15 +116,14 @@ public class ChannelHandlerContext {
     }
   }
 
-  protected void propagateOutbound(Runnable task) {
-    SingleThreadExecutor executor;
-    if (prev != null) {
-      executor = prev.getExecutor();
-    } else {
-      // Reach the end of outbound pipeline and hand the IO task to channel itself.
-      executor = channel.getEventLoop();
-    }
+  // Executor of the next outbound operation.
+  private SingleThreadExecutor outboundExecutor() {
+    return prev != null ? prev.getExecutor() : channel.getEventLoop();
+  }
 
+  protected void propagateOutbound(Runnable task) {
+    // At the end of outbound pipeline, the IO task is handed to channel itself.
+    SingleThreadExecutor executor = outboundExecutor();
     if (executor.threadRunning()) {
       task.run();
     } else {
@@ -168,6 +185,8 @@ public class ChannelHandlerContext {
       @Override
       public void run() {
         if (next != null) {
+          // Leak reports tell the last handler that received the message.
+          ReferenceCountUtil.touch(msg, next.handler.getName());
           next.handler.channelRead(next, msg);
         }
       }
@@ -175,6 +194,54 @@ public class ChannelHandlerContext {
     return this;
   }
 
+  public ChannelHandlerContext fireChannelReadComplete() {
+    propagateInbound(new Runnable() {
+      @Override
+      public void run() {
+        if (next != null) {
+          next.handler.channelReadComplete(next);
+        }
+      }
+    });
+    return this;
+  }
+
+  public ChannelHandlerContext fireChannelWritabilityChanged() {
+    propagateInbound(new Runnable() {
+      @Override
+      public void run() {
+        if (next != null) {
+          next.handler.channelWritabilityChanged(next);
+        }
+      }
+    });
+    return this;
+  }
+
+  public ChannelHandlerContext fireUserEventTriggered(Object evt) {
+    propagateInbound(new Runnable() {
+      @Override
+      public void run() {
+        if (next != null) {
+          next.handler.userEventTriggered(next, evt);
+        }
+      }
+    });
+    return this;
+  }
+
+  public ChannelHandlerContext fireExceptionCaught(Throwable cause) {
+    propagateInbound(new Runnable() {
+      @Override
+      public void run() {
+        if (next != null) {
+          next.handler.exceptionCaught(next, cause);
+        }
+      }
+    });
+    return this;
+  }
+
   // ------------------------------ Pipeline Outbound Operations -------------------------------- //
   // bind
   public ChannelFuture bind(SocketAddress local) {
@@ -217,6 +284,15 @@ public class ChannelHandlerContext {
     });
   }
 
+  // Shared promise for callers ignoring the result. Passing it to write(), flush() and
+  // writeAndFlush() allocates no future.
+  public ChannelPromise voidPromise() {
+    return VoidChannelPromise.INSTANCE;
+  }
+
+  // write, flush and writeAndFlush are on the hot path. Unlike other operations they are invoked
+  // directly when already in the executor, so no Runnable is allocated.
+
   // write
   public ChannelFuture write(Object msg) {
     DefaultChannelFuture future = new DefaultChannelFuture();
@@ -225,16 +301,25 @@ public class ChannelHandlerContext {
   }
 
   public void write(Object msg, ChannelPromise promise) {
-    propagateOutbound(new Runnable() {
-      @Override
-      public void run() {
-        if (prev != null) {
-          prev.handler.write(prev, msg, promise);
-        } else {
-          channel.doWrite((ByteBuf)msg, promise);
+    SingleThreadExecutor executor = outboundExecutor();
+    if (executor.threadRunning()) {
+      invokeWrite(msg, promise);
+    } else {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          invokeWrite(msg, promise);
         }
-      }
-    });
+      });
+    }
+  }
+
+  private void invokeWrite(Object msg, ChannelPromise promise) {
+    if (prev != null) {
+      prev.handler.write(prev, msg, promise);
+    } else {
+      channel.doWrite((ByteBuf)msg, promise);
+    }
   }
 
   // flush
@@ -245,16 +330,25 @@ public class ChannelHandlerContext {
   }
 
   public void flush(ChannelPromise promise) {
-    propagateOutbound(new Runnable() {
-      @Override
-      public void run() {
-        if (prev != null) {
-          prev.handler.flush(prev, promise);
-        } else {
-          channel.doFlush(promise);
+    SingleThreadExecutor executor = outboundExecutor();
+    if (executor.threadRunning()) {
+      invokeFlush(promise);
+    } else {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          invokeFlush(promise);
         }
-      }
-    });
+      });
+    }
+  }
+
+  private void invokeFlush(ChannelPromise promise) {
+    if (prev != null) {
+      prev.handler.flush(prev, promise);
+    } else {
+      channel.doFlush(promise);
+    }
   }
 
   // writeAndFlush
@@ -265,17 +359,26 @@ public class ChannelHandlerContext {
   }
 
   public void writeAndFlush(Object msg, ChannelPromise promise) {
-    propagateOutbound(new Runnable() {
-      @Override
-      public void run() {
-        if (prev != null) {
-          prev.handler.write(prev, msg, promise);
-          prev.handler.flush(prev, promise);
-        } else {
-          channel.doWriteAndFlush((ByteBuf)msg, promise);
+    SingleThreadExecutor executor = outboundExecutor();
+    if (executor.threadRunning()) {
+      invokeWriteAndFlush(msg, promise);
+    } else {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          invokeWriteAndFlush(msg, promise);
         }
-      }
-    });
+      });
+    }
+  }
+
+  private void invokeWriteAndFlush(Object msg, ChannelPromise promise) {
+    if (prev != null) {
+      prev.handler.write(prev, msg, promise);
+      prev.handler.flush(prev, promise);
+    } else {
+      channel.doWriteAndFlush((ByteBuf)msg, promise);
+    }
   }
 
   // close
@@ -4,4 +4,7 @@ import multithread.IPromise;
 
 public interface ChannelPromise extends IPromise<Void> {
   boolean setSuccess();
+
+  // If this is VoidChannelPromise, which drops the result.
+  boolean isVoid();
 }
@@ -8,9 +8,12 @@ import java.nio.channels.SocketChannel;
 import org.apache.log4j.Logger;
 
 import buffer.ByteBuf;
+import buffer.ByteBufAllocator;
+import channel.AdaptiveRecvBufAllocator;
 import channel.BaseChannel;
 import channel.ChannelExceptions;
 import channel.OutboundBufferQueue;
+import channel.VoidChannelPromise;
 import bootstrap.NioBootStrap;
 import net.EventLoop;
 import net.EventLoopGroup;
@@ -18,11 +21,18 @@ import net.EventLoopGroup;
 public class ClientChannel extends BaseChannel {
   private static final Logger log = Logger.getLogger(ClientChannel.class);
 
+  // Max reads per read event, so that a busy channel does not starve others in the same EventLoop.
+  private static final int MAX_READS_PER_EVENT = 16;
+
   private NioBootStrap bootstrap;
 
   // Lower-level network IO.
   private SocketChannel javaChannel;
   private OutboundBufferQueue outboundBufs;
+  private AdaptiveRecvBufAllocator recvBufAllocator = new AdaptiveRecvBufAllocator();
+
+  // Updated in EventLoop when pending outbound bytes cross the water marks of bootstrap.
+  private volatile boolean writable = true;
 
   SocketAddress remote;
   ChannelPromise connectPromise;
@@ -39,6 +49,38 @@ public class ClientChannel extends BaseChannel {
     this.outboundBufs = new OutboundBufferQueue();
   }
 
+  @Override
+  public ByteBufAllocator alloc() {
+    return bootstrap.getAllocator();
+  }
+
+  @Override
+  public boolean isWritable() {
+    return writable;
+  }
+
+  @Override
+  public long pendingOutboundBytes() {
+    return outboundBufs.pendingBytes();
+  }
+
+  @Override
+  public long writtenBytes() {
+    return outboundBufs.writtenBytes();
+  }
+
+  // Called in EventLoop after the pending outbound bytes change.
+  private void updateWritability() {
+    long pendingBytes = outboundBufs.pendingBytes();
+    if (writable && pendingBytes > bootstrap.getWriteBufferHighWaterMark()) {
+      writable = false;
+      header.fireChannelWritabilityChanged();
+    } else if (!writable && pendingBytes < bootstrap.getWriteBufferLowWaterMark()) {
+      writable = true;
+      header.fireChannelWritabilityChanged();
+    }
+  }
+
   @Override
   public void handleNetworkIOEvents() throws ChannelExceptions.UnexpectedException {
     if (key.isConnectable() &&
@@ -48,32 +90,66 @@ public class ClientChannel extends BaseChannel {
         log.info("Connecting finished");
 
         connectPromise.setSuccess();
-        key.interestOps(SelectionKey.OP_READ);
+        // Data flushed before the connection finished is still queued, wait for OP_WRITE to send it.
+        int interestOps = SelectionKey.OP_READ;
+        if (outboundBufs.hasFlushed()) {
+          interestOps |= SelectionKey.OP_WRITE;
+        }
+        key.interestOps(interestOps);
         header.fireChannelActive();
       } catch (IOException e) {
         e.printStackTrace();
         connectPromise.setFailure(e);
       }
     } else if (key.isReadable()) {
-      ByteBuf inboundBuf = ByteBuf.alloc();
-      int readLength = inboundBuf.readFromChannel(javaChannel);
-      if (readLength >= 0) {
-        header.fireChannelRead(inboundBuf);
-      } else {
-        header.fireChannelInactive();
-      }
+      read();
     } else if (key.isWritable()) {
-      outboundBufs.flushToChannel(javaChannel);
-      if (key.isValid() && outboundBufs.isEmpty()) {
+      flushOutboundBufs();
+      updateWritability();
+      if (key.isValid() && !outboundBufs.hasFlushed()) {
         // No more data is waiting for flushing, remove OP_WRITE from interest ops.
         key.interestOps(key.interestOps() & (~SelectionKey.OP_WRITE));
       }
     }
   }
 
+  // Read until the socket is drained. Each read goes into a new buffer sized by the guess of
+  // recvBufAllocator, and is fired down the pipeline separately. channelReadComplete follows the
+  // last one.
+  private void read() {
+    ByteBufAllocator alloc = alloc();
+    boolean readSome = false;
+    for (int i = 0; i < MAX_READS_PER_EVENT && javaChannel.isOpen(); i++) {
+      ByteBuf inboundBuf = recvBufAllocator.allocate(alloc);
+      int readLength = inboundBuf.readFromChannel(javaChannel);
+      if (readLength <= 0) {
+        inboundBuf.release();
+        if (readSome) {
+          header.fireChannelReadComplete();
+        }
+        if (readLength < 0) {
+          header.fireChannelInactive();
+        }
+        return;
+      }
+
+      readSome = true;
+      recvBufAllocator.record(readLength);
+      // A buffer not filled up means there is nothing more to read for now.
+      boolean drained = inboundBuf.writableBytes() > 0;
+      header.fireChannelRead(inboundBuf);
+      if (drained) {
+        break;
+      }
+    }
+    if (readSome) {
+      header.fireChannelReadComplete();
+    }
+  }
+
   // Register the ClientChannel to EventLoop.
   public void register(int interestOps) throws ClosedChannelException {
-    this.key = javaChannel.register(this.eventLoop.getSelector(), interestOps, this);
+    this.key = this.eventLoop.register(javaChannel, interestOps, this);
   }
 
   // ------------------------------ Lower level IO functions ------------------------------------ //
@@ -116,33 +192,116 @@ public class ClientChannel extends BaseChannel {
     }
   }
 
+  // Never connected, or closed already. Outbound buffers were released at close, and those written
+  // later are failed right away, since nothing would ever flush them.
+  private boolean isClosed() {
+    return javaChannel == null || !javaChannel.isOpen();
+  }
+
+  private void failClosedWrite(ByteBuf buf, ChannelPromise promise) {
+    buf.release();
+    promise.setFailure(new ClosedChannelException());
+  }
+
   @Override
   protected void doWrite(ByteBuf buf, ChannelPromise promise) {
-    outboundBufs.enqueueOutputBuf(buf);
-    promise.setSuccess();
+    if (isClosed()) {
+      failClosedWrite(buf, promise);
+      return;
+    }
+    // The promise completes when the buffer is flushed and written to socket.
+    outboundBufs.enqueueOutputBuf(filterOutboundBuf(buf), promise);
+    updateWritability();
+  }
+
+  // If the allocator prefers direct buffers, copy heap buffers into a direct one before queuing.
+  // The copy has to happen anyway since the JDK writes heap buffers through a temporary direct
+  // buffer, but this way the direct memory is pooled and the heap buffer can be released early.
+  private ByteBuf filterOutboundBuf(ByteBuf buf) {
+    ByteBufAllocator alloc = alloc();
+    if (buf.isDirect() || !alloc.preferDirect()) {
+      return buf;
+    }
+    ByteBuf direct = alloc.directBuffer(buf.readableBytes());
+    direct.put(buf);
+    buf.release();
+    return direct;
   }
 
   @Override
   protected void doFlush(ChannelPromise promise) {
-    // Add flush request to OutboundBufferQueue, and wait for channel to be writable.
+    if (isClosed()) {
+      promise.setFailure(new ClosedChannelException());
+      return;
+    }
     outboundBufs.addFlush(promise);
+    if (!javaChannel.isConnected()) {
+      // Connecting is not finished yet. Data stays queued until finishConnect() succeeds.
+      return;
+    }
     int interestOps = key.interestOps();
-    if ((interestOps & SelectionKey.OP_WRITE) == 0) {
-      key.interestOps(interestOps | SelectionKey.OP_WRITE);
+    if ((interestOps & SelectionKey.OP_WRITE) != 0) {
+      // Socket send buffer was full last time. Data goes out when it becomes writable again.
+      return;
+    }
+
+    // Write right away, it saves a select() round trip. Most of the time the socket takes all data
+    // and the promise completes here. Wait for OP_WRITE only if some data is left.
+    flushOutboundBufs();
+    updateWritability();
+    if (!key.isValid()) {
+      return;
+    }
+    if (outboundBufs.hasFlushed()) {
+      key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+    } else if ((key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+      // A flush from a write listener saw this one still writing and registered OP_WRITE.
+      key.interestOps(key.interestOps() & (~SelectionKey.OP_WRITE));
+    }
+  }
+
+  // Write flushed buffers to socket. If writing fails, the queue has already failed and released
+  // all buffers. The socket is of no use anymore, so the channel is closed, and handlers learn it
+  // by channelInactive like on EOF. An unexpected error is also passed to exceptionCaught, as
+  // nothing else tells it apart from a closed connection.
+  private void flushOutboundBufs() {
+    try {
+      outboundBufs.flushToChannel(javaChannel);
+    } catch (IOException e) {
+      log.warn("Failed to write to channel: " + e);
+      doClose(VoidChannelPromise.INSTANCE);
+      header.fireChannelInactive();
+    } catch (ChannelExceptions.UnexpectedException e) {
+      log.error("Failed to write to channel: " + e);
+      header.fireExceptionCaught(e);
+      doClose(VoidChannelPromise.INSTANCE);
+      header.fireChannelInactive();
     }
   }
 
   @Override
   protected void doWriteAndFlush(ByteBuf buf, ChannelPromise promise) {
-    outboundBufs.enqueueOutputBuf(buf);
-    doFlush(promise);
+    if (isClosed()) {
+      failClosedWrite(buf, promise);
+      return;
+    }
+    outboundBufs.enqueueOutputBuf(filterOutboundBuf(buf), promise);
+    updateWritability();
+    doFlush(VoidChannelPromise.INSTANCE);
   }
 
   @Override
   protected void doClose(ChannelPromise promise) {
+    if (isClosed()) {
+      promise.setSuccess();
+      this.closeFuture.setSuccess();
+      return;
+    }
     try {
       log.info("Closing connection with " + javaChannel.getRemoteAddress());
+      eventLoop.deregister(key);
       javaChannel.close();
+      outboundBufs.releaseAll(new ClosedChannelException());
       promise.setSuccess();
       this.closeFuture.setSuccess();
     } catch (IOException e) {
@@ -7,6 +7,11 @@ import multithread.AbstractFuture;
 public class DefaultChannelFuture
     extends AbstractFuture<Void> implements ChannelFuture, ChannelPromise {
 
+  @Override
+  public boolean isVoid() {
+    return false;
+  }
+
   @Override
   public boolean setSuccess() {
     return this.setSuccess(null);
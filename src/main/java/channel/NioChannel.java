@@ -1,8 +1,15 @@
 package channel;
 
 import handler.ChannelHandler;
+import multithread.IExecutorGroup;
 
 public interface NioChannel {
   void addInboundHandler(ChannelHandler handler);
   void addOutboundHandler(ChannelHandler handler);
+
+  // Add a handler run by an executor of the group instead of EventLoop, for handlers that block or
+  // take long. The executor is picked once, so events of the channel keep their order. The group is
+  // usually a TaskExecutorGroup, or a VirtualThreadExecutorGroup when built for Java 21.
+  void addInboundHandler(IExecutorGroup group, ChannelHandler handler);
+  void addOutboundHandler(IExecutorGroup group, ChannelHandler handler);
 }
@@ -1,60 +1,283 @@
 package channel;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.channels.SocketChannel;
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
-import java.util.Queue;
+import java.util.Arrays;
 
 import buffer.ByteBuf;
 import channel.BaseChannel;
 import channel.ChannelExceptions;
 import channel.ChannelPromise;
+import channel.VoidChannelPromise;
 
+// Buffers waiting to be written to a channel. Flushing gathers several buffers into a single
+// SocketChannel.write(ByteBuffer[]) call, bounded by MAX_GATHERED_BUFFERS and MAX_GATHERED_BYTES.
+//
+// Buffers are kept in a ring of entries, each with the buffer, the promise of its write and how
+// many of its bytes are written. Entries are indexed by an ever increasing sequence, and the slot
+// of an entry is its sequence masked by the ring size. Slots are reused, so in steady state queuing
+// a buffer allocates nothing. The queue is split by sequences as:
+//
+//   head ... flushed ... tail
+//
+// Entries in [head, flushed) are flushed and are written by flushToChannel(). Entries in
+// [flushed, tail) are written but not flushed yet. Flush promises are kept in a similar ring,
+// each marked with the flushed sequence at the time, and complete once head passes the mark.
 public class OutboundBufferQueue {
-  private Queue<ByteBuf> bufQueue = new LinkedList<ByteBuf>();
-  private Map<ByteBuf, LinkedList<ChannelPromise>> flushRequests =
-      new HashMap<ByteBuf, LinkedList<ChannelPromise>>();
+  static final int MAX_GATHERED_BUFFERS = 1024;
+  static final int MAX_GATHERED_BYTES = 1024 * 1024;
+
+  private static final int INITIAL_CAPACITY = 16;
+
+  private static final class Entry {
+    ByteBuf buf;
+    ChannelPromise promise;
+    // Readable bytes when queued, and how many of them are written.
+    int total;
+    int progress;
+
+    void clear() {
+      buf = null;
+      promise = null;
+      total = 0;
+      progress = 0;
+    }
+  }
+
+  // Reused by every gathering write.
+  private ByteBuffer[] nioBuffers = new ByteBuffer[16];
+
+  private Entry[] entries = new Entry[INITIAL_CAPACITY];
+  private long head = 0;
+  private long flushed = 0;
+  private long tail = 0;
+
+  private ChannelPromise[] flushPromises = new ChannelPromise[INITIAL_CAPACITY];
+  private long[] flushMarks = new long[INITIAL_CAPACITY];
+  private long flushHead = 0;
+  private long flushTail = 0;
+
+  // Readable bytes of all buffers in queue, flushed or not.
+  private long pendingBytes = 0;
+  // Bytes written to channel so far.
+  private long writtenBytes = 0;
+
+  // Set while flushToChannel() runs. Promises complete in the middle of it, and their listeners may
+  // write and flush again.
+  private boolean inFlush = false;
 
   public boolean isEmpty() {
-    return bufQueue.isEmpty();
+    return head == tail;
+  }
+
+  // If there are flushed buffers not written yet.
+  public boolean hasFlushed() {
+    return head != flushed;
+  }
+
+  public long pendingBytes() {
+    return pendingBytes;
+  }
+
+  public long writtenBytes() {
+    return writtenBytes;
   }
 
   public void enqueueOutputBuf(ByteBuf buf) {
-    bufQueue.offer(buf);
+    enqueueOutputBuf(buf, VoidChannelPromise.INSTANCE);
   }
 
+  // Queue a buffer. The promise completes when the buffer is fully written to the channel.
+  public void enqueueOutputBuf(ByteBuf buf, ChannelPromise promise) {
+    if (tail - head == entries.length) {
+      entries = grow(entries, head, tail);
+    }
+    int slot = (int)(tail & (entries.length - 1));
+    Entry entry = entries[slot];
+    if (entry == null) {
+      entry = new Entry();
+      entries[slot] = entry;
+    }
+    entry.buf = buf;
+    entry.promise = promise;
+    entry.total = buf.readableBytes();
+    tail++;
+    pendingBytes += entry.total;
+  }
+
+  // Mark all queued buffers as flushed. The promise completes when they are all written, or right
+  // away if there is nothing to write.
   public void addFlush(ChannelPromise promise) {
-    ByteBuf last = ((LinkedList<ByteBuf>)bufQueue).getLast();
-    LinkedList<ChannelPromise> waitingFlushes = flushRequests.get(last);
-    if (waitingFlushes == null) {
-      waitingFlushes = new LinkedList<ChannelPromise>();
-      flushRequests.put(last, waitingFlushes);
-    }
-    waitingFlushes.offer(promise);
-  }
-
-  public void flushToChannel(SocketChannel channel) throws ChannelExceptions.UnexpectedException {
-    while (!bufQueue.isEmpty()) {
-      ByteBuf buf = bufQueue.peek();
-      int pendingBytes = buf.readableBytes();
-      int writeLen = buf.writeToChannel(channel);
-      if (writeLen == pendingBytes) {
-        // This output buffer is flushed to channel, set promises.
-        bufQueue.poll();
-        LinkedList<ChannelPromise> promises = flushRequests.get(buf);
-        if (promises != null) {
-          for (ChannelPromise promise : promises) {
-            promise.setSuccess();
+    flushed = tail;
+    if (promise.isVoid()) {
+      // Nobody waits for it.
+      return;
+    }
+    if (head == flushed) {
+      promise.setSuccess();
+      return;
+    }
+
+    if (flushTail - flushHead == flushPromises.length) {
+      int capacity = flushPromises.length * 2;
+      ChannelPromise[] newPromises = new ChannelPromise[capacity];
+      long[] newMarks = new long[capacity];
+      for (long i = flushHead; i < flushTail; i++) {
+        int oldSlot = (int)(i & (flushPromises.length - 1));
+        int newSlot = (int)(i & (capacity - 1));
+        newPromises[newSlot] = flushPromises[oldSlot];
+        newMarks[newSlot] = flushMarks[oldSlot];
+      }
+      flushPromises = newPromises;
+      flushMarks = newMarks;
+    }
+    int slot = (int)(flushTail & (flushPromises.length - 1));
+    flushPromises[slot] = promise;
+    flushMarks[slot] = flushed;
+    flushTail++;
+  }
+
+  // Double the ring, keeping every sequence in [from, to) at its masked slot.
+  private static Entry[] grow(Entry[] ring, long from, long to) {
+    Entry[] newRing = new Entry[ring.length * 2];
+    for (long i = from; i < to; i++) {
+      newRing[(int)(i & (newRing.length - 1))] = ring[(int)(i & (ring.length - 1))];
+    }
+    return newRing;
+  }
+
+  private Entry entry(long sequence) {
+    return entries[(int)(sequence & (entries.length - 1))];
+  }
+
+  // Release all pending buffers and fail the promises waiting for them. Called when the channel is
+  // closed, or when writing to it fails.
+  public void releaseAll(Throwable cause) {
+    for (; head < tail; head++) {
+      Entry entry = entry(head);
+      entry.buf.release();
+      ChannelPromise promise = entry.promise;
+      entry.clear();
+      promise.setFailure(cause);
+    }
+    flushed = tail;
+    pendingBytes = 0;
+    for (; flushHead < flushTail; flushHead++) {
+      int slot = (int)(flushHead & (flushPromises.length - 1));
+      ChannelPromise promise = flushPromises[slot];
+      flushPromises[slot] = null;
+      promise.setFailure(cause);
+    }
+  }
+
+  // Write flushed buffers until done or the socket send buffer is full. If the write fails, or the
+  // socket reports more bytes written than given, all pending buffers are released with the error
+  // as by releaseAll(), and the error is thrown for the caller to close the channel.
+  //
+  // A flush from a promise listener returns right away. Buffers it flushed are written by the
+  // outer call, which is still looping and has the only consistent view of head and progress.
+  public void flushToChannel(SocketChannel channel)
+      throws IOException, ChannelExceptions.UnexpectedException {
+    if (inFlush) {
+      return;
+    }
+    inFlush = true;
+    try {
+      doFlushToChannel(channel);
+    } finally {
+      inFlush = false;
+    }
+  }
+
+  private void doFlushToChannel(SocketChannel channel)
+      throws IOException, ChannelExceptions.UnexpectedException {
+    while (head < flushed) {
+      int count = 0;
+      long attempted = 0;
+      for (long i = head; i < flushed; i++) {
+        ByteBuf buf = entry(i).buf;
+        int readable = buf.readableBytes();
+        if (count > 0 && attempted + readable > MAX_GATHERED_BYTES) {
+          break;
+        }
+        int nioCount = buf.nioBufferCount();
+        if (count > 0 && count + nioCount > MAX_GATHERED_BUFFERS) {
+          break;
+        }
+        if (count + nioCount > nioBuffers.length) {
+          nioBuffers = Arrays.copyOf(nioBuffers, Math.max(nioBuffers.length * 2, count + nioCount));
+        }
+        if (nioCount == 1) {
+          nioBuffers[count++] = buf.internalNioBuffer();
+        } else {
+          for (ByteBuffer nioBuffer : buf.nioBuffers()) {
+            nioBuffers[count++] = nioBuffer;
           }
         }
-        flushRequests.remove(buf);
-      } else if (writeLen < pendingBytes) {
+        attempted += readable;
+      }
+
+      long written;
+      try {
+        if (count == 1) {
+          written = channel.write(nioBuffers[0]);
+        } else {
+          written = channel.write(nioBuffers, 0, count);
+        }
+      } catch (IOException e) {
+        releaseAll(e);
+        throw e;
+      } finally {
+        Arrays.fill(nioBuffers, 0, count, null);
+      }
+      if (written > attempted) {
+        // Should never happen. Progress of the buffers is unknown, so none of them can be sent.
+        ChannelExceptions.UnexpectedException e = new ChannelExceptions.UnexpectedException(
+            "Flushed more than available bytes to SocketChannel.");
+        releaseAll(e);
+        throw e;
+      }
+
+      removeWritten(written);
+      if (written < attempted) {
+        // Socket send buffer is full.
         break;
-      } else {
-        // Should never happen.
-        throw new ChannelExceptions.UnexpectedException(
-            "ByteBuf flushed more than available bytes to SocketChannel.");
+      }
+    }
+  }
+
+  // Advance read index of buffers by bytes written. Buffers fully written are released and the
+  // promises waiting for them are completed.
+  private void removeWritten(long written) {
+    pendingBytes -= written;
+    writtenBytes += written;
+    while (head < flushed) {
+      Entry entry = entry(head);
+      int remaining = entry.total - entry.progress;
+      if (written < remaining) {
+        entry.buf.skipBytes((int)written);
+        entry.progress += (int)written;
+        return;
+      }
+      written -= remaining;
+
+      entry.buf.release();
+      ChannelPromise promise = entry.promise;
+      entry.clear();
+      head++;
+      promise.setSuccess();
+
+      // Complete flushes whose buffers are all written.
+      while (flushHead < flushTail) {
+        int slot = (int)(flushHead & (flushPromises.length - 1));
+        if (flushMarks[slot] > head) {
+          break;
+        }
+        ChannelPromise flushPromise = flushPromises[slot];
+        flushPromises[slot] = null;
+        flushHead++;
+        flushPromise.setSuccess();
       }
     }
   }
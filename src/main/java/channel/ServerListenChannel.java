@@ -71,10 +71,8 @@ public class ServerListenChannel extends BaseChannel {
       log.info("doBind");
       // Register server channel to selector.
       serverChannel.bind(local);
-      this.key = serverChannel.register(this.eventLoop.getSelector(), SelectionKey.OP_ACCEPT, this);
-
-      // TODO: Set promise?
-
+      this.key = this.eventLoop.register(serverChannel, SelectionKey.OP_ACCEPT, this);
+      promise.setSuccess();
     } catch (IOException e) {
       promise.setFailure(e);
     }
@@ -88,12 +86,14 @@ public class ServerListenChannel extends BaseChannel {
 
   @Override
   protected void doWrite(ByteBuf buf, ChannelPromise promise) {
+    buf.release();
     promise.setFailure(
         new ChannelExceptions.MethodNotSupported("ServerListenChannel does not support write"));
   }
 
   @Override
   protected void doWriteAndFlush(ByteBuf buf, ChannelPromise promise) {
+    buf.release();
     promise.setFailure(
         new ChannelExceptions.MethodNotSupported(
             "ServerListenChannel does not support writeAndFlush"));
@@ -107,7 +107,16 @@ public class ServerListenChannel extends BaseChannel {
 
   @Override
   protected void doClose(ChannelPromise promise) {
-    promise.setFailure(
-        new ChannelExceptions.MethodNotSupported("ServerListenChannel does not support close"));
+    try {
+      log.info("Closing server channel");
+      eventLoop.deregister(key);
+      // No-op if closed already.
+      serverChannel.close();
+      promise.setSuccess();
+      this.closeFuture.setSuccess();
+    } catch (IOException e) {
+      promise.setFailure(e);
+      this.closeFuture.setFailure(e);
+    }
   }
 }
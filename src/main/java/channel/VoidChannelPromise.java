@@ -0,0 +1,113 @@
+package channel;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+
+import channel.ChannelFuture;
+import channel.ChannelPromise;
+import multithread.IFuture;
+import multithread.IFutureListener;
+
+// A promise for callers that do not care about the result, e.g. a stream of fire-and-forget writes.
+// There is a single shared instance, so passing it allocates nothing, and completing it notifies
+// nobody. Failures are only logged.
+//
+// It can not be waited for or listened to. Those methods throw IllegalStateException. Handlers
+// that need to know when an operation completes must check isVoid() and use their own promise.
+public final class VoidChannelPromise implements ChannelFuture, ChannelPromise {
+  private static final Logger log = Logger.getLogger(VoidChannelPromise.class);
+
+  public static final VoidChannelPromise INSTANCE = new VoidChannelPromise();
+
+  private VoidChannelPromise() {}
+
+  @Override
+  public boolean isVoid() {
+    return true;
+  }
+
+  @Override
+  public boolean setSuccess() {
+    return false;
+  }
+
+  @Override
+  public boolean setSuccess(Void result) {
+    return false;
+  }
+
+  @Override
+  public boolean setFailure(Throwable cause) {
+    log.warn("Operation with void promise failed: " + cause);
+    return false;
+  }
+
+  @Override
+  public boolean isDone() {
+    return false;
+  }
+
+  @Override
+  public boolean isSuccess() {
+    return false;
+  }
+
+  @Override
+  public boolean isCancelled() {
+    return false;
+  }
+
+  @Override
+  public boolean isCancellable() {
+    return false;
+  }
+
+  @Override
+  public boolean cancel() {
+    return false;
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    return false;
+  }
+
+  @Override
+  public Throwable getCause() {
+    return null;
+  }
+
+  @Override
+  public Void get() {
+    throw fail();
+  }
+
+  @Override
+  public Void get(long timeout, TimeUnit unit) {
+    throw fail();
+  }
+
+  @Override
+  public IFuture<Void> await() {
+    throw fail();
+  }
+
+  @Override
+  public IFuture<Void> await(long timeout, TimeUnit unit) {
+    throw fail();
+  }
+
+  @Override
+  public IFuture<Void> addListener(IFutureListener<Void> listener) {
+    throw fail();
+  }
+
+  @Override
+  public void sync() {
+    throw fail();
+  }
+
+  private static IllegalStateException fail() {
+    return new IllegalStateException("void promise can not be waited for or listened to");
+  }
+}
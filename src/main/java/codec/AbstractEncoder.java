@@ -1,20 +1,28 @@
 package codec;
 
 import buffer.ByteBuf;
+import buffer.ReferenceCountUtil;
 import channel.ChannelHandlerContext;
 import channel.ChannelPromise;
 import handler.ChannelOutboundHandler;
 
+// Encodes outbound messages into ByteBuf. If a message is reference counted, it is released after
+// being encoded.
 public abstract class AbstractEncoder extends ChannelOutboundHandler {
   @Override
   public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+    ByteBuf encoded = ctx.alloc().buffer();
     try {
-      ByteBuf encoded = ByteBuf.alloc();
       encode(msg, encoded);
-      ctx.write(encoded, promise);
     } catch (Exception e) {
       e.printStackTrace();
+      encoded.release();
+      promise.setFailure(e);
+      return;
+    } finally {
+      ReferenceCountUtil.release(msg);
     }
+    ctx.write(encoded, promise);
   }
 
   public abstract void encode(Object msg, ByteBuf buf) throws Exception;
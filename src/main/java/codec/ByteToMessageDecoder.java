@@ -5,28 +5,73 @@ import java.util.ArrayList;
 import java.util.List;
 
 import buffer.ByteBuf;
+import buffer.CompositeByteBuf;
 import channel.ChannelHandlerContext;
 import handler.ChannelInboundHandler;
 
+// Decodes a stream of ByteBufs into messages. Input buffers are accumulated until decode() consumes
+// them, and released once they are fully read.
+//
+// By default input buffers are accumulated by COMPOSITE_CUMULATOR, which does not copy. Decoders
+// that read small messages one byte at a time may prefer MERGE_CUMULATOR. See setCumulator().
 public abstract class ByteToMessageDecoder extends ChannelInboundHandler {
+  // Strategy of accumulating input buffers.
+  public interface Cumulator {
+    // Append in to cumulation and return the result. cumulation is null if nothing is accumulated.
+    // Ownership of both buffers is taken.
+    ByteBuf cumulate(ByteBuf cumulation, ByteBuf in);
+  }
+
+  // Copy input into a single buffer. Reads are cheaper, but a large message arriving in many pieces
+  // is copied again every time the buffer grows.
+  public static final Cumulator MERGE_CUMULATOR = new Cumulator() {
+    @Override
+    public ByteBuf cumulate(ByteBuf cumulation, ByteBuf in) {
+      if (cumulation == null) {
+        return in;
+      }
+      cumulation.put(in);
+      in.release();
+      return cumulation;
+    }
+  };
+
+  // Add input as components of a CompositeByteBuf, without copying.
+  public static final Cumulator COMPOSITE_CUMULATOR = new Cumulator() {
+    @Override
+    public ByteBuf cumulate(ByteBuf cumulation, ByteBuf in) {
+      if (cumulation == null) {
+        return in;
+      }
+      CompositeByteBuf composite;
+      if (cumulation instanceof CompositeByteBuf) {
+        composite = (CompositeByteBuf)cumulation;
+      } else {
+        composite = cumulation.allocator().compositeBuffer();
+        composite.addComponent(cumulation);
+      }
+      composite.addComponent(in);
+      return composite;
+    }
+  };
+
   protected ByteBuf cumulation;
+  private Cumulator cumulator = COMPOSITE_CUMULATOR;
+
+  public void setCumulator(Cumulator cumulator) {
+    this.cumulator = cumulator;
+  }
 
   @Override
   public void channelRead(ChannelHandlerContext ctx, Object msg) {
     List<Object> outs = new ArrayList<Object>();
     if (msg instanceof ByteBuf) {
       ByteBuf data = (ByteBuf)msg;
-      if (cumulation == null) {
-        cumulation = data;
-      } else {
-        cumulation.put(data);
-      }
+      cumulate(data);
 
       try {
         decode(cumulation, outs);
-        if (cumulation.readableBytes() == 0) {
-          cumulation = null;
-        }
+        discardReadBytes();
       } catch (Exception e) {
         e.printStackTrace();
       }
@@ -39,5 +84,36 @@ public abstract class ByteToMessageDecoder extends ChannelInboundHandler {
     }
   }
 
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) {
+    if (cumulation != null) {
+      releaseCumulation();
+    }
+    ctx.fireChannelInactive();
+  }
+
+  // Append data to cumulation. Ownership of data is taken by this decoder.
+  protected void cumulate(ByteBuf data) {
+    cumulation = cumulator.cumulate(cumulation, data);
+  }
+
+  // Free memory of bytes consumed by decode(). A mark left on cumulation, e.g. the checkpoint of
+  // ReplayingDecoder, would keep consumed components, so it is dropped first.
+  protected void discardReadBytes() {
+    if (cumulation.readableBytes() == 0) {
+      releaseCumulation();
+      return;
+    }
+    cumulation.unmarkReadIndex();
+    if (cumulation instanceof CompositeByteBuf) {
+      ((CompositeByteBuf)cumulation).discardReadComponents();
+    }
+  }
+
+  protected void releaseCumulation() {
+    cumulation.release();
+    cumulation = null;
+  }
+
   public abstract void decode(ByteBuf buf, List<Object> outs) throws Exception;
 }
@@ -15,18 +15,12 @@ public abstract class ReplayingDecoder extends ByteToMessageDecoder {
     List<Object> outs = new ArrayList<Object>();
     if (msg instanceof ByteBuf) {
       ByteBuf data = (ByteBuf)msg;
-      if (cumulation == null) {
-        cumulation = data;
-      } else {
-        cumulation.put(data);
-      }
+      cumulate(data);
 
       try {
         cumulation.markReadIndex();
         decode(cumulation, outs);
-        if (cumulation.readableBytes() == 0) {
-          cumulation = null;
-        }
+        discardReadBytes();
       } catch (BufferUnderflowException e) {
         // In case of BufferUnderflowException thrown from decode(), recover the read position of
         // cumulation buffer and discard all decoded objects.
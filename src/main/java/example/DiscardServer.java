@@ -85,6 +85,7 @@ public class DiscardServer {
               });
 
         server.listen(new InetSocketAddress("localhost", 9090)).sync();
+        server.channel().awaitClose();
       } catch (Exception e) {
         e.printStackTrace();
         return;
@@ -83,6 +83,7 @@ public class EchoServer {
 
       int vInt = buf.getInt();
       double vDobule = buf.getDouble();
+      buf.release();
 
       if (vInt != 2 || Math.abs(vDobule - 7.0) > 0.001) {
         log.error("Received wrong value " + vInt + " and " + vDobule);
@@ -114,6 +115,7 @@ public class EchoServer {
               });
 
         server.listen(new InetSocketAddress("localhost", 9090)).sync();
+        server.channel().awaitClose();
       } catch (Exception e) {
         e.printStackTrace();
         return;
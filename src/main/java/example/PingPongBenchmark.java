@@ -0,0 +1,135 @@
+package example;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+import bootstrap.NioServer;
+import bootstrap.NioClient;
+import buffer.ByteBuf;
+import channel.ChannelHandlerContext;
+import channel.ChannelInitializer;
+import channel.NioChannel;
+import handler.ChannelInboundHandler;
+import net.EventLoopGroup;
+
+// Measures round trip latency of a single connection. The client sends a small message, and sends
+// the next one as soon as the server echoes it back.
+//
+// Usage: PingPongBenchmark [rounds] [message size]
+public class PingPongBenchmark {
+  private static final int WARMUP_ROUNDS = 5000;
+
+  private static class EchoHandler extends ChannelInboundHandler {
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+      ctx.write(msg, ctx.voidPromise());
+      ctx.flush(ctx.voidPromise());
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) {
+      ctx.close();
+    }
+  }
+
+  private static class PingHandler extends ChannelInboundHandler {
+    private final byte[] payload;
+    private final long[] latencies;
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private int round = 0;
+    private int received = 0;
+    private long sendTime;
+
+    PingHandler(int rounds, int messageSize) {
+      this.payload = new byte[messageSize];
+      this.latencies = new long[rounds];
+    }
+
+    private void ping(ChannelHandlerContext ctx) {
+      ByteBuf buf = ctx.alloc().buffer(payload.length);
+      buf.put(payload);
+      sendTime = System.nanoTime();
+      ctx.write(buf, ctx.voidPromise());
+      ctx.flush(ctx.voidPromise());
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) {
+      ping(ctx);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) {
+      ByteBuf buf = (ByteBuf)msg;
+      received += buf.readableBytes();
+      buf.release();
+      if (received < payload.length) {
+        return;
+      }
+
+      received -= payload.length;
+      long latency = System.nanoTime() - sendTime;
+      if (round >= WARMUP_ROUNDS) {
+        latencies[round - WARMUP_ROUNDS] = latency;
+      }
+      round++;
+      if (round < WARMUP_ROUNDS + latencies.length) {
+        ping(ctx);
+      } else {
+        ctx.close();
+        done.countDown();
+      }
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+    int messageSize = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+
+    EventLoopGroup bossGroup = new EventLoopGroup(1);
+    EventLoopGroup serverGroup = new EventLoopGroup(1);
+    EventLoopGroup clientGroup = new EventLoopGroup(1);
+    try {
+      NioServer server = new NioServer();
+      server.group(bossGroup, serverGroup)
+            .childHandler(new ChannelInitializer() {
+              @Override
+              public void initChannel(NioChannel channel) {
+                channel.addInboundHandler(new EchoHandler());
+              }
+            });
+      server.listen(new InetSocketAddress("localhost", 9090)).sync();
+
+      PingHandler pingHandler = new PingHandler(rounds, messageSize);
+      NioClient client = new NioClient();
+      client.group(clientGroup)
+            .handler(new ChannelInitializer() {
+              @Override
+              public void initChannel(NioChannel channel) {
+                channel.addInboundHandler(pingHandler);
+              }
+            });
+      long start = System.nanoTime();
+      client.connect(new InetSocketAddress("localhost", 9090)).sync();
+      pingHandler.done.await();
+      long elapsed = System.nanoTime() - start;
+
+      long[] latencies = pingHandler.latencies;
+      Arrays.sort(latencies);
+      long sum = 0;
+      for (long latency : latencies) {
+        sum += latency;
+      }
+      System.out.println(String.format(
+          "%d rounds of %d bytes in %d ms: avg %.1f us, p50 %.1f us, p99 %.1f us",
+          rounds, messageSize, elapsed / 1000000, sum / 1000.0 / rounds,
+          latencies[rounds / 2] / 1000.0, latencies[rounds * 99 / 100] / 1000.0));
+    } finally {
+      clientGroup.shutdown();
+      serverGroup.shutdown();
+      bossGroup.shutdown();
+    }
+  }
+}
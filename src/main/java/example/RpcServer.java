@@ -20,6 +20,7 @@ import codec.ReplayingDecoder;
 import codec.ByteToMessageDecoder;
 import handler.ChannelInboundHandler;
 import handler.ChannelOutboundHandler;
+import multithread.TaskExecutorGroup;
 import net.EventLoopGroup;
 
 public class RpcServer {
@@ -32,8 +33,9 @@ public class RpcServer {
     public char op;
 
     // magic is a generated string of random length 0 to 20. RPC response must echo back its md5
-    // checksum for client to verify.
-    public String magic;
+    // checksum for client to verify. On server side it is a slice of the received buffer, and must be
+    // released after use.
+    public ByteBuf magic;
   }
 
   // RPC response message.
@@ -65,6 +67,17 @@ public class RpcServer {
     }
   }
 
+  private static String computeChecksum(ByteBuf buf) {
+    try {
+      MessageDigest md = MessageDigest.getInstance("MD5");
+      md.update(buf.nioBuffer());
+      byte[] digest = md.digest();
+      return Hex.encodeHexString(digest).toUpperCase();
+    } catch (Exception e) {
+      return "";
+    }
+  }
+
   // -------------------------------------- Server ---------------------------------------------- //
   private static class RpcRequestDecoder extends ReplayingDecoder {
     @Override
@@ -76,10 +89,8 @@ public class RpcServer {
       request.num2 = buf.getInt();
       request.op = buf.getChar();
 
-      // Decode magic string.
-      byte[] array = new byte[magicLength];
-      buf.get(array);
-      request.magic = new String(array);
+      // Magic string is passed on without copying.
+      request.magic = buf.readRetainedSlice(magicLength);
 
       outs.add(request);
     }
@@ -109,6 +120,7 @@ public class RpcServer {
       RpcResponse response = new RpcResponse();
       response.result = RpcServer.calculate(request.num1, request.num2, request.op);
       response.md5 = RpcServer.computeChecksum(request.magic);
+      request.magic.release();
 
       ChannelFuture future = ctx.writeAndFlush(response);
       future.addListener(new ChannelFutureListener() {
@@ -126,11 +138,12 @@ public class RpcServer {
     @Override
     public void encode(Object msg, ByteBuf buf) throws Exception {
       RpcRequest request = (RpcRequest)msg;
-      buf.putInt(10 + request.magic.length());
+      buf.putInt(10 + request.magic.readableBytes());
       buf.putInt(request.num1);
       buf.putInt(request.num2);
       buf.putChar(request.op);
-      buf.put(request.magic.getBytes());
+      buf.put(request.magic);
+      request.magic.release();
     }
   }
 
@@ -174,7 +187,8 @@ public class RpcServer {
       request.num1 = num1 = (int)(Math.random() * 1000);
       request.num2 = num2 = (int)(Math.random() * 1000);
       request.op = op = ops[(int)(Math.random() * 4)];
-      request.magic = magic = genterateMagic();
+      magic = genterateMagic();
+      request.magic = ctx.alloc().buffer().put(magic.getBytes());
       result = RpcServer.calculate(num1, num2, op);
 
       ctx.write(request);
@@ -207,6 +221,8 @@ public class RpcServer {
       log.info("Starting Rpc Server");
       EventLoopGroup bossGroup = new EventLoopGroup(1);
       EventLoopGroup workerGroup = new EventLoopGroup(4);
+      // Checksums are computed off EventLoops, so that they do not hold up IO of other channels.
+      TaskExecutorGroup handlerGroup = new TaskExecutorGroup(4);
       try {
         NioServer server = new NioServer();
         server.group(bossGroup, workerGroup)
@@ -214,18 +230,20 @@ public class RpcServer {
                 @Override
                 public void initChannel(NioChannel channel) {
                   channel.addInboundHandler(new RpcRequestDecoder());
-                  channel.addInboundHandler(new RpcServerHandler());
+                  channel.addInboundHandler(handlerGroup, new RpcServerHandler());
                   channel.addOutboundHandler(new RpcResponseEncoder());
                 }
               });
 
         server.listen(new InetSocketAddress("localhost", 9090)).sync();
+        server.channel().awaitClose();
       } catch (Exception e) {
         e.printStackTrace();
         return;
       } finally {
         workerGroup.shutdown();
         bossGroup.shutdown();
+        handlerGroup.shutdown();
       }
     });
 
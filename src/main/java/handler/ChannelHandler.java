@@ -58,6 +58,30 @@ public abstract class ChannelHandler {
     ctx.fireChannelRead(msg);
   }
 
+  // Fired after the channel has read all data available for now, following one or more
+  // channelRead() events. Handlers may hold back flushes until then.
+  public void channelReadComplete(ChannelHandlerContext ctx) {
+    ctx.fireChannelReadComplete();
+  }
+
+  // Fired when channel.isWritable() changes. Producers should stop writing when the channel becomes
+  // unwritable, and resume when it is writable again.
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+    ctx.fireChannelWritabilityChanged();
+  }
+
+  // Fired for events other than IO, like IdleStateEvent of IdleStateHandler. Handlers pass on the
+  // events they do not know.
+  public void userEventTriggered(ChannelHandlerContext ctx, Object evt) {
+    ctx.fireUserEventTriggered(evt);
+  }
+
+  // Fired when an operation of the channel fails with an error that no promise reports to the
+  // pipeline, like a broken outbound queue.
+  public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+    ctx.fireExceptionCaught(cause);
+  }
+
   // --------------------------------- Outbound Operations -------------------------------------- //
   // These methods are for user-defined sub-classes to override.
   public void bind(ChannelHandlerContext ctx, SocketAddress local, ChannelPromise promise) {
@@ -1,9 +1,31 @@
 package handler;
 
+import org.apache.log4j.Logger;
+
+import buffer.ReferenceCountUtil;
+import channel.ChannelHandlerContext;
 import handler.ChannelOutboundHandler;
 
 public class ChannelTailHandler extends ChannelOutboundHandler {
+  private static final Logger log = Logger.getLogger(ChannelTailHandler.class);
+
   public ChannelTailHandler() {
     setName("TailHandler");
   }
-}
\ No newline at end of file
+
+  // Messages reaching the end of pipeline are not consumed by any handler. Release them.
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) {
+    ReferenceCountUtil.release(msg);
+  }
+
+  @Override
+  public void userEventTriggered(ChannelHandlerContext ctx, Object evt) {
+    ReferenceCountUtil.release(evt);
+  }
+
+  @Override
+  public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+    log.warn("Exception reached the end of pipeline: " + cause);
+  }
+}
@@ -0,0 +1,156 @@
+package handler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import channel.ChannelFuture;
+import channel.ChannelFutureListener;
+import channel.ChannelHandlerContext;
+import channel.ChannelPromise;
+import channel.DefaultChannelFuture;
+import handler.ChannelOutboundHandler;
+
+// Consolidates flushes, so that a batch of responses costs one flush instead of one per message.
+//
+// While the channel is reading, i.e. from channelRead() until channelReadComplete(), flushes are
+// held back and done once the read burst completes, or every explicitFlushAfterFlushes flushes.
+// Flushes outside a read burst go through right away, so light traffic sees no extra latency,
+// unless consolidateWhenNoReadInProgress is set. Then they are deferred to a task of the EventLoop,
+// which batches flushes coming from other threads.
+//
+// Add it as an outbound handler, so that it sits between the channel and the handlers flushing.
+// It keeps state of the channel, so an instance must not be shared by channels.
+public class FlushConsolidationHandler extends ChannelOutboundHandler {
+  public static final int DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES = 256;
+
+  private final int explicitFlushAfterFlushes;
+  private final boolean consolidateWhenNoReadInProgress;
+
+  private boolean readInProgress = false;
+  private boolean flushScheduled = false;
+  // Promises of flushes held back.
+  private final List<ChannelPromise> pendingFlushes = new ArrayList<ChannelPromise>();
+
+  public FlushConsolidationHandler() {
+    this(DEFAULT_EXPLICIT_FLUSH_AFTER_FLUSHES, false);
+  }
+
+  public FlushConsolidationHandler(int explicitFlushAfterFlushes) {
+    this(explicitFlushAfterFlushes, false);
+  }
+
+  public FlushConsolidationHandler(int explicitFlushAfterFlushes,
+                                   boolean consolidateWhenNoReadInProgress) {
+    if (explicitFlushAfterFlushes <= 0) {
+      throw new IllegalArgumentException(
+          "explicitFlushAfterFlushes must be > 0: " + explicitFlushAfterFlushes);
+    }
+    this.explicitFlushAfterFlushes = explicitFlushAfterFlushes;
+    this.consolidateWhenNoReadInProgress = consolidateWhenNoReadInProgress;
+    setName("FlushConsolidationHandler");
+  }
+
+  @Override
+  public void flush(ChannelHandlerContext ctx, ChannelPromise promise) {
+    pendingFlushes.add(promise);
+    if (!readInProgress && !consolidateWhenNoReadInProgress) {
+      flushNow(ctx);
+    } else if (pendingFlushes.size() >= explicitFlushAfterFlushes) {
+      flushNow(ctx);
+    } else if (!readInProgress) {
+      scheduleFlush(ctx);
+    }
+    // Otherwise flushed by channelReadComplete().
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) {
+    readInProgress = true;
+    ctx.fireChannelRead(msg);
+  }
+
+  @Override
+  public void channelReadComplete(ChannelHandlerContext ctx) {
+    readInProgress = false;
+    flushIfNeeded(ctx);
+    ctx.fireChannelReadComplete();
+  }
+
+  @Override
+  public void channelWritabilityChanged(ChannelHandlerContext ctx) {
+    // Data held back is what makes the channel unwritable. Let it drain.
+    if (!ctx.channel().isWritable()) {
+      flushIfNeeded(ctx);
+    }
+    ctx.fireChannelWritabilityChanged();
+  }
+
+  @Override
+  public void close(ChannelHandlerContext ctx, ChannelPromise promise) {
+    readInProgress = false;
+    flushIfNeeded(ctx);
+    ctx.close(promise);
+  }
+
+  private void flushIfNeeded(ChannelHandlerContext ctx) {
+    if (!pendingFlushes.isEmpty()) {
+      flushNow(ctx);
+    }
+  }
+
+  private void scheduleFlush(ChannelHandlerContext ctx) {
+    if (flushScheduled) {
+      return;
+    }
+    flushScheduled = true;
+    ctx.getExecutor().execute(new Runnable() {
+      @Override
+      public void run() {
+        flushScheduled = false;
+        flushIfNeeded(ctx);
+      }
+    });
+  }
+
+  // Do a single flush for all pending flushes. Their promises complete with it.
+  private void flushNow(ChannelHandlerContext ctx) {
+    if (pendingFlushes.size() == 1) {
+      ChannelPromise promise = pendingFlushes.get(0);
+      pendingFlushes.clear();
+      ctx.flush(promise);
+      return;
+    }
+
+    // Void promises need no notification. If all are void, the flush is void too.
+    List<ChannelPromise> waiting = null;
+    for (ChannelPromise promise : pendingFlushes) {
+      if (!promise.isVoid()) {
+        if (waiting == null) {
+          waiting = new ArrayList<ChannelPromise>();
+        }
+        waiting.add(promise);
+      }
+    }
+    pendingFlushes.clear();
+    if (waiting == null) {
+      ctx.flush(ctx.voidPromise());
+      return;
+    }
+
+    List<ChannelPromise> promises = waiting;
+    DefaultChannelFuture future = new DefaultChannelFuture();
+    future.addListener(new ChannelFutureListener() {
+      @Override
+      public void taskDone(ChannelFuture future) throws Exception {
+        for (ChannelPromise promise : promises) {
+          if (future.isSuccess()) {
+            promise.setSuccess();
+          } else {
+            promise.setFailure(future.getCause());
+          }
+        }
+      }
+    });
+    ctx.flush(future);
+  }
+}
@@ -0,0 +1,10 @@
+package handler;
+
+public enum IdleState {
+  // No data was read for a while.
+  READER_IDLE,
+  // No data was written for a while.
+  WRITER_IDLE,
+  // Neither read nor written for a while.
+  ALL_IDLE,
+}
@@ -0,0 +1,235 @@
+package handler;
+
+import java.util.concurrent.TimeUnit;
+
+import channel.ChannelHandlerContext;
+import channel.ChannelPromise;
+import handler.ChannelOutboundHandler;
+import handler.IdleStateEvent;
+import multithread.HashedWheelTimer;
+import multithread.ITimeout;
+import multithread.ITimer;
+import multithread.ITimerTask;
+
+// Fires IdleStateEvent through the pipeline when a channel has not read, written, or done either
+// for a while. A time of 0 disables that kind of event. Handlers after it decide what to do, e.g.
+// send a ping or close the channel.
+//
+// Last read and write times are plain fields updated in EventLoop, so tracking costs no allocation
+// per message. Reads count when a read burst completes, writes count when write() is called.
+// Checks are timeouts of a HashedWheelTimer, shared by all handlers unless one is given, and run in
+// EventLoop of the channel.
+//
+// Add it as an outbound handler, so that it sees writes of all inbound handlers. It keeps state of
+// the channel, so an instance must not be shared by channels.
+public class IdleStateHandler extends ChannelOutboundHandler {
+  // Timeouts of all channels go to one wheel. 100ms ticks are fine for idle times of seconds.
+  private static class SharedTimerHolder {
+    static final HashedWheelTimer TIMER = new HashedWheelTimer();
+  }
+
+  static ITimer sharedTimer() {
+    return SharedTimerHolder.TIMER;
+  }
+
+  private static final int ST_INIT = 0;
+  private static final int ST_ACTIVE = 1;
+  private static final int ST_DESTROYED = 2;
+
+  private final ITimer timer;
+  private final long readerIdleNanos;
+  private final long writerIdleNanos;
+  private final long allIdleNanos;
+
+  // Below are accessed in EventLoop only.
+  private ChannelHandlerContext ctx;
+  private int state = ST_INIT;
+
+  private boolean reading;
+  private long lastReadTime;
+  private long lastWriteTime;
+
+  private boolean firstReaderIdle = true;
+  private boolean firstWriterIdle = true;
+  private boolean firstAllIdle = true;
+
+  private ITimeout readerIdleTimeout;
+  private ITimeout writerIdleTimeout;
+  private ITimeout allIdleTimeout;
+
+  private final IdleTask readerIdleTask = new IdleTask() {
+    @Override
+    void check(long now) {
+      long nextDelay = readerIdleNanos;
+      if (!reading) {
+        nextDelay -= now - lastReadTime;
+      }
+      if (nextDelay > 0) {
+        readerIdleTimeout = schedule(this, nextDelay);
+        return;
+      }
+      readerIdleTimeout = schedule(this, readerIdleNanos);
+      IdleStateEvent evt = firstReaderIdle ?
+          IdleStateEvent.FIRST_READER_IDLE_STATE_EVENT : IdleStateEvent.READER_IDLE_STATE_EVENT;
+      firstReaderIdle = false;
+      channelIdle(ctx, evt);
+    }
+  };
+
+  private final IdleTask writerIdleTask = new IdleTask() {
+    @Override
+    void check(long now) {
+      long nextDelay = writerIdleNanos - (now - lastWriteTime);
+      if (nextDelay > 0) {
+        writerIdleTimeout = schedule(this, nextDelay);
+        return;
+      }
+      writerIdleTimeout = schedule(this, writerIdleNanos);
+      IdleStateEvent evt = firstWriterIdle ?
+          IdleStateEvent.FIRST_WRITER_IDLE_STATE_EVENT : IdleStateEvent.WRITER_IDLE_STATE_EVENT;
+      firstWriterIdle = false;
+      channelIdle(ctx, evt);
+    }
+  };
+
+  private final IdleTask allIdleTask = new IdleTask() {
+    @Override
+    void check(long now) {
+      long nextDelay = allIdleNanos;
+      if (!reading) {
+        nextDelay -= now - Math.max(lastReadTime, lastWriteTime);
+      }
+      if (nextDelay > 0) {
+        allIdleTimeout = schedule(this, nextDelay);
+        return;
+      }
+      allIdleTimeout = schedule(this, allIdleNanos);
+      IdleStateEvent evt = firstAllIdle ?
+          IdleStateEvent.FIRST_ALL_IDLE_STATE_EVENT : IdleStateEvent.ALL_IDLE_STATE_EVENT;
+      firstAllIdle = false;
+      channelIdle(ctx, evt);
+    }
+  };
+
+  public IdleStateHandler(long readerIdleTime, long writerIdleTime, long allIdleTime,
+                          TimeUnit unit) {
+    this(sharedTimer(), readerIdleTime, writerIdleTime, allIdleTime, unit);
+  }
+
+  public IdleStateHandler(ITimer timer, long readerIdleTime, long writerIdleTime, long allIdleTime,
+                          TimeUnit unit) {
+    if (timer == null) {
+      throw new NullPointerException("timer");
+    }
+    this.timer = timer;
+    this.readerIdleNanos = Math.max(0, unit.toNanos(readerIdleTime));
+    this.writerIdleNanos = Math.max(0, unit.toNanos(writerIdleTime));
+    this.allIdleNanos = Math.max(0, unit.toNanos(allIdleTime));
+    setName("IdleStateHandler");
+  }
+
+  // Called in EventLoop when the channel is idle. By default the event goes down the pipeline.
+  protected void channelIdle(ChannelHandlerContext ctx, IdleStateEvent evt) {
+    ctx.fireUserEventTriggered(evt);
+  }
+
+  @Override
+  public void channelActive(ChannelHandlerContext ctx) {
+    initialize(ctx);
+    ctx.fireChannelActive();
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) {
+    destroy();
+    ctx.fireChannelInactive();
+  }
+
+  @Override
+  public void channelRead(ChannelHandlerContext ctx, Object msg) {
+    if (readerIdleNanos > 0 || allIdleNanos > 0) {
+      reading = true;
+      firstReaderIdle = firstAllIdle = true;
+    }
+    ctx.fireChannelRead(msg);
+  }
+
+  @Override
+  public void channelReadComplete(ChannelHandlerContext ctx) {
+    if (reading) {
+      lastReadTime = System.nanoTime();
+      reading = false;
+    }
+    ctx.fireChannelReadComplete();
+  }
+
+  @Override
+  public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+    if (writerIdleNanos > 0 || allIdleNanos > 0) {
+      lastWriteTime = System.nanoTime();
+      firstWriterIdle = firstAllIdle = true;
+    }
+    ctx.write(msg, promise);
+  }
+
+  @Override
+  public void close(ChannelHandlerContext ctx, ChannelPromise promise) {
+    destroy();
+    ctx.close(promise);
+  }
+
+  private void initialize(ChannelHandlerContext ctx) {
+    if (state != ST_INIT) {
+      return;
+    }
+    state = ST_ACTIVE;
+    this.ctx = ctx;
+    lastReadTime = lastWriteTime = System.nanoTime();
+    if (readerIdleNanos > 0) {
+      readerIdleTimeout = schedule(readerIdleTask, readerIdleNanos);
+    }
+    if (writerIdleNanos > 0) {
+      writerIdleTimeout = schedule(writerIdleTask, writerIdleNanos);
+    }
+    if (allIdleNanos > 0) {
+      allIdleTimeout = schedule(allIdleTask, allIdleNanos);
+    }
+  }
+
+  private void destroy() {
+    state = ST_DESTROYED;
+    if (readerIdleTimeout != null) {
+      readerIdleTimeout.cancel();
+      readerIdleTimeout = null;
+    }
+    if (writerIdleTimeout != null) {
+      writerIdleTimeout.cancel();
+      writerIdleTimeout = null;
+    }
+    if (allIdleTimeout != null) {
+      allIdleTimeout.cancel();
+      allIdleTimeout = null;
+    }
+  }
+
+  private ITimeout schedule(IdleTask task, long delayNanos) {
+    return timer.newTimeout(task, delayNanos, TimeUnit.NANOSECONDS);
+  }
+
+  // Expires in timer thread, and hands the check over to EventLoop, where the channel state lives.
+  private abstract class IdleTask implements ITimerTask, Runnable {
+    @Override
+    public void run(ITimeout timeout) {
+      ctx.getExecutor().execute(this);
+    }
+
+    @Override
+    public void run() {
+      if (state == ST_ACTIVE) {
+        check(System.nanoTime());
+      }
+    }
+
+    abstract void check(long now);
+  }
+}
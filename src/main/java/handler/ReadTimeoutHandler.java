@@ -0,0 +1,37 @@
+package handler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import channel.ChannelHandlerContext;
+import handler.IdleStateEvent;
+import handler.IdleStateHandler;
+import multithread.ITimer;
+
+// Closes the channel when nothing is read from it for a while.
+public class ReadTimeoutHandler extends IdleStateHandler {
+  private static final Logger log = Logger.getLogger(ReadTimeoutHandler.class);
+
+  private boolean closed;
+
+  public ReadTimeoutHandler(long timeout, TimeUnit unit) {
+    super(timeout, 0, 0, unit);
+    setName("ReadTimeoutHandler");
+  }
+
+  public ReadTimeoutHandler(ITimer timer, long timeout, TimeUnit unit) {
+    super(timer, timeout, 0, 0, unit);
+    setName("ReadTimeoutHandler");
+  }
+
+  @Override
+  protected void channelIdle(ChannelHandlerContext ctx, IdleStateEvent evt) {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    log.warn("Read timed out, closing channel");
+    ctx.close();
+  }
+}
@@ -0,0 +1,123 @@
+package handler;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import channel.BaseChannel;
+import channel.ChannelHandlerContext;
+import channel.ChannelPromise;
+import handler.ChannelOutboundHandler;
+import handler.IdleStateHandler;
+import multithread.ITimeout;
+import multithread.ITimer;
+import multithread.ITimerTask;
+
+// Closes the channel when written data makes no progress to the socket for a while, e.g. the peer
+// stopped reading.
+//
+// Instead of a timeout and a listener per write, one check is pending while the channel has
+// outbound bytes. It compares written bytes of the channel with those of the last check, so a
+// channel steadily sending a large backlog does not time out, while a stuck one does. Writes cost
+// a field check only.
+public class WriteTimeoutHandler extends ChannelOutboundHandler {
+  private static final Logger log = Logger.getLogger(WriteTimeoutHandler.class);
+
+  private final ITimer timer;
+  private final long timeoutNanos;
+
+  // Below are accessed in EventLoop only.
+  private ChannelHandlerContext ctx;
+  private ITimeout checkTimeout;
+  private long lastWrittenBytes;
+  private long lastProgressTime;
+  private boolean closed;
+
+  private final CheckTask checkTask = new CheckTask();
+
+  public WriteTimeoutHandler(long timeout, TimeUnit unit) {
+    this(IdleStateHandler.sharedTimer(), timeout, unit);
+  }
+
+  public WriteTimeoutHandler(ITimer timer, long timeout, TimeUnit unit) {
+    if (timer == null) {
+      throw new NullPointerException("timer");
+    }
+    if (timeout <= 0) {
+      throw new IllegalArgumentException("timeout must be > 0: " + timeout);
+    }
+    this.timer = timer;
+    this.timeoutNanos = unit.toNanos(timeout);
+    setName("WriteTimeoutHandler");
+  }
+
+  @Override
+  public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+    if (checkTimeout == null && !closed) {
+      this.ctx = ctx;
+      lastWrittenBytes = ctx.channel().writtenBytes();
+      lastProgressTime = System.nanoTime();
+      checkTimeout = timer.newTimeout(checkTask, timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+    ctx.write(msg, promise);
+  }
+
+  @Override
+  public void channelInactive(ChannelHandlerContext ctx) {
+    cancelCheck();
+    ctx.fireChannelInactive();
+  }
+
+  @Override
+  public void close(ChannelHandlerContext ctx, ChannelPromise promise) {
+    cancelCheck();
+    ctx.close(promise);
+  }
+
+  private void cancelCheck() {
+    closed = true;
+    if (checkTimeout != null) {
+      checkTimeout.cancel();
+      checkTimeout = null;
+    }
+  }
+
+  private void check(long now) {
+    BaseChannel channel = ctx.channel();
+    if (channel.pendingOutboundBytes() == 0) {
+      // All written. Next write starts a new check.
+      checkTimeout = null;
+      return;
+    }
+    long written = channel.writtenBytes();
+    if (written != lastWrittenBytes) {
+      lastWrittenBytes = written;
+      lastProgressTime = now;
+    }
+    long nextDelay = timeoutNanos - (now - lastProgressTime);
+    if (nextDelay > 0) {
+      checkTimeout = timer.newTimeout(checkTask, nextDelay, TimeUnit.NANOSECONDS);
+      return;
+    }
+    checkTimeout = null;
+    closed = true;
+    log.warn("Write timed out with " + channel.pendingOutboundBytes() +
+             " bytes pending, closing channel");
+    ctx.close();
+  }
+
+  // Expires in timer thread, and hands the check over to EventLoop.
+  private class CheckTask implements ITimerTask, Runnable {
+    @Override
+    public void run(ITimeout timeout) {
+      ctx.getExecutor().execute(this);
+    }
+
+    @Override
+    public void run() {
+      if (!closed) {
+        check(System.nanoTime());
+      }
+    }
+  }
+}
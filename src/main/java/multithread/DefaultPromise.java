@@ -0,0 +1,18 @@
+package multithread;
+
+import multithread.AbstractFuture;
+import multithread.IFuturePromise;
+
+// Promise completed by whoever holds it, e.g. the termination future of an executor. It is not
+// cancellable, cancel() is a no-op.
+public class DefaultPromise<V> extends AbstractFuture<V> implements IFuturePromise<V> {
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    return false;
+  }
+
+  @Override
+  public boolean isCancellable() {
+    return false;
+  }
+}
@@ -0,0 +1,369 @@
+package multithread;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import multithread.ITimeout;
+import multithread.ITimer;
+import multithread.ITimerTask;
+import multithread.MpscQueue;
+
+// Timer for a large number of timeouts that are mostly cancelled before they expire, like the
+// read and write timeouts of connections.
+//
+// Timeouts are hashed into a wheel of buckets by their deadline. A worker thread ticks every
+// tickDuration, expiring timeouts in the bucket of the tick whose remaining rounds reach zero.
+// Adding and cancelling are O(1), at the cost of precision: a timeout expires on the first tick
+// after its deadline. Pick tickDuration as coarse as the timeouts allow.
+//
+// newTimeout() and cancel() are called from any thread. They put the timeout in a lock-free queue,
+// and the worker moves it into or out of its bucket on the next tick. Tasks run in the worker
+// thread, so they must be short. Hand longer work to an executor. An exception thrown by a task is
+// printed and otherwise swallowed, so that other timeouts still expire. A task whose failure
+// matters must handle it itself.
+public class HashedWheelTimer implements ITimer {
+  public static final long DEFAULT_TICK_DURATION_MILLIS = 100;
+  public static final int DEFAULT_TICKS_PER_WHEEL = 512;
+
+  // Max timeouts moved into buckets per tick, so that a flood of new timeouts does not stall
+  // expiring.
+  private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+  private static final int WORKER_INIT = 0;
+  private static final int WORKER_STARTED = 1;
+  private static final int WORKER_STOPPED = 2;
+
+  private final long tickDuration;
+  private final Bucket[] wheel;
+  private final int mask;
+
+  private final Thread worker;
+  private final AtomicInteger workerState = new AtomicInteger(WORKER_INIT);
+  // Set by worker when it starts. Deadlines are relative to it.
+  private volatile long startTime;
+  private final Object startLock = new Object();
+
+  private final MpscQueue<Timeout> pendingTimeouts = new MpscQueue<Timeout>();
+  private final MpscQueue<Timeout> cancelledTimeouts = new MpscQueue<Timeout>();
+
+  // Ticks done, accessed by worker only.
+  private long tick;
+
+  public HashedWheelTimer() {
+    this(DEFAULT_TICK_DURATION_MILLIS, TimeUnit.MILLISECONDS, DEFAULT_TICKS_PER_WHEEL);
+  }
+
+  public HashedWheelTimer(long tickDuration, TimeUnit unit) {
+    this(tickDuration, unit, DEFAULT_TICKS_PER_WHEEL);
+  }
+
+  public HashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel) {
+    if (tickDuration <= 0) {
+      throw new IllegalArgumentException("tickDuration must be > 0: " + tickDuration);
+    }
+    if (ticksPerWheel <= 0 || ticksPerWheel > (1 << 30)) {
+      throw new IllegalArgumentException("ticksPerWheel must be in (0, 2^30]: " + ticksPerWheel);
+    }
+    this.tickDuration = Math.max(unit.toNanos(tickDuration), TimeUnit.MILLISECONDS.toNanos(1));
+
+    // Round up to a power of 2, so that a bucket is found by masking.
+    int size = 1;
+    while (size < ticksPerWheel) {
+      size <<= 1;
+    }
+    this.wheel = new Bucket[size];
+    for (int i = 0; i < size; i++) {
+      wheel[i] = new Bucket();
+    }
+    this.mask = size - 1;
+
+    this.worker = new Thread(() -> { this.runWorker(); }, "HashedWheelTimer");
+    this.worker.setDaemon(true);
+  }
+
+  @Override
+  public ITimeout newTimeout(ITimerTask task, long delay, TimeUnit unit) {
+    if (task == null) {
+      throw new NullPointerException("task");
+    }
+    start();
+    long deadline = System.nanoTime() + unit.toNanos(Math.max(0, delay)) - startTime;
+    Timeout timeout = new Timeout(task, deadline);
+    pendingTimeouts.offer(timeout);
+    if (workerState.get() == WORKER_STOPPED) {
+      // Raced with stop(). Worker may never see it.
+      timeout.cancel();
+    }
+    return timeout;
+  }
+
+  // Start the worker. Called by newTimeout(), so it is only needed to start ticking early.
+  public void start() {
+    switch (workerState.get()) {
+      case WORKER_INIT:
+        if (workerState.compareAndSet(WORKER_INIT, WORKER_STARTED)) {
+          worker.start();
+        }
+        break;
+      case WORKER_STARTED:
+        break;
+      default:
+        throw new IllegalStateException("HashedWheelTimer is stopped");
+    }
+
+    // Wait for worker to set startTime.
+    if (startTime == 0) {
+      synchronized(startLock) {
+        while (startTime == 0) {
+          try {
+            startLock.wait();
+          } catch (InterruptedException e) {
+            // Keep waiting, startTime is set soon.
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (Thread.currentThread() == worker) {
+      throw new IllegalStateException("HashedWheelTimer.stop() can not be called from a task");
+    }
+    if (!workerState.compareAndSet(WORKER_STARTED, WORKER_STOPPED)) {
+      workerState.set(WORKER_STOPPED);
+      return;
+    }
+    worker.interrupt();
+    try {
+      worker.join();
+    } catch (InterruptedException e) {
+      // Leave waiting to the caller's interrupt handling.
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void runWorker() {
+    long now = System.nanoTime();
+    // 0 means not started.
+    startTime = now == 0 ? 1 : now;
+    synchronized(startLock) {
+      startLock.notifyAll();
+    }
+
+    while (workerState.get() == WORKER_STARTED) {
+      long deadline = waitForNextTick();
+      if (deadline < 0) {
+        break;
+      }
+      removeCancelled();
+      transferPending();
+      wheel[(int)(tick & mask)].expire(deadline);
+      tick++;
+    }
+
+    // Stopped. Cancel everything left.
+    for (Bucket bucket : wheel) {
+      bucket.cancelAll();
+    }
+    Timeout timeout;
+    while ((timeout = pendingTimeouts.poll()) != null) {
+      timeout.cancel();
+    }
+    removeCancelled();
+  }
+
+  // Sleep until the end of current tick. Returns the time then relative to startTime, or -1 if
+  // stopped meanwhile.
+  private long waitForNextTick() {
+    long deadline = tickDuration * (tick + 1);
+    while (true) {
+      long current = System.nanoTime() - startTime;
+      long sleepNanos = deadline - current;
+      if (sleepNanos <= 0) {
+        return current;
+      }
+      try {
+        TimeUnit.NANOSECONDS.sleep(sleepNanos);
+      } catch (InterruptedException e) {
+        if (workerState.get() == WORKER_STOPPED) {
+          return -1;
+        }
+      }
+    }
+  }
+
+  private void removeCancelled() {
+    Timeout timeout;
+    while ((timeout = cancelledTimeouts.poll()) != null) {
+      if (timeout.bucket != null) {
+        timeout.bucket.remove(timeout);
+      }
+    }
+  }
+
+  private void transferPending() {
+    for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+      Timeout timeout = pendingTimeouts.poll();
+      if (timeout == null) {
+        return;
+      }
+      if (timeout.state() == Timeout.ST_CANCELLED) {
+        continue;
+      }
+
+      long calculated = timeout.deadline / tickDuration;
+      timeout.remainingRounds = (calculated - tick) / wheel.length;
+      // A deadline already passed goes to current tick.
+      long ticks = Math.max(calculated, tick);
+      wheel[(int)(ticks & mask)].add(timeout);
+    }
+  }
+
+  private final class Timeout implements ITimeout {
+    private static final int ST_INIT = 0;
+    private static final int ST_CANCELLED = 1;
+    private static final int ST_EXPIRED = 2;
+
+    private final ITimerTask task;
+    // Relative to startTime.
+    private final long deadline;
+    // Not private, for STATE_UPDATER.
+    volatile int state = ST_INIT;
+
+    // Below are accessed by worker only.
+    long remainingRounds;
+    Bucket bucket;
+    Timeout prev;
+    Timeout next;
+
+    Timeout(ITimerTask task, long deadline) {
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+    int state() {
+      return state;
+    }
+
+    boolean compareAndSetState(int expect, int update) {
+      return STATE_UPDATER.compareAndSet(this, expect, update);
+    }
+
+    @Override
+    public ITimer timer() {
+      return HashedWheelTimer.this;
+    }
+
+    @Override
+    public ITimerTask task() {
+      return task;
+    }
+
+    @Override
+    public boolean isExpired() {
+      return state == ST_EXPIRED;
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return state == ST_CANCELLED;
+    }
+
+    @Override
+    public boolean cancel() {
+      if (!compareAndSetState(ST_INIT, ST_CANCELLED)) {
+        return false;
+      }
+      // Worker removes it from its bucket on next tick.
+      cancelledTimeouts.offer(this);
+      return true;
+    }
+
+    void expire() {
+      if (!compareAndSetState(ST_INIT, ST_EXPIRED)) {
+        return;
+      }
+      try {
+        task.run(this);
+      } catch (Throwable e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  private static final AtomicIntegerFieldUpdater<Timeout> STATE_UPDATER =
+      AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+  // Doubly linked list of timeouts, so that a cancelled timeout is removed in O(1). Accessed by
+  // worker only.
+  private final class Bucket {
+    private Timeout head;
+    private Timeout tail;
+
+    void add(Timeout timeout) {
+      timeout.bucket = this;
+      if (head == null) {
+        head = tail = timeout;
+      } else {
+        tail.next = timeout;
+        timeout.prev = tail;
+        tail = timeout;
+      }
+    }
+
+    void remove(Timeout timeout) {
+      if (timeout.bucket != this) {
+        return;
+      }
+      if (timeout.prev != null) {
+        timeout.prev.next = timeout.next;
+      } else {
+        head = timeout.next;
+      }
+      if (timeout.next != null) {
+        timeout.next.prev = timeout.prev;
+      } else {
+        tail = timeout.prev;
+      }
+      timeout.prev = null;
+      timeout.next = null;
+      timeout.bucket = null;
+    }
+
+    // Expire timeouts due by deadline. Others are a round closer.
+    void expire(long deadline) {
+      Timeout timeout = head;
+      while (timeout != null) {
+        Timeout next = timeout.next;
+        if (timeout.remainingRounds <= 0) {
+          remove(timeout);
+          if (timeout.deadline <= deadline) {
+            timeout.expire();
+          } else {
+            // Should never happen, as a timeout is put in the bucket of its deadline. Throwing here
+            // would kill the worker and every other timeout with it, so hand it back to be put in
+            // the right bucket on next tick.
+            System.err.println(String.format(
+                "timeout.deadline (%d) > deadline (%d), rescheduling", timeout.deadline, deadline));
+            pendingTimeouts.offer(timeout);
+          }
+        } else if (timeout.isCancelled()) {
+          remove(timeout);
+        } else {
+          timeout.remainingRounds--;
+        }
+        timeout = next;
+      }
+    }
+
+    void cancelAll() {
+      Timeout timeout;
+      while ((timeout = head) != null) {
+        remove(timeout);
+        timeout.cancel();
+      }
+    }
+  }
+}
@@ -0,0 +1,12 @@
+package multithread;
+
+import multithread.SingleThreadExecutor;
+
+// Source of executors for channel handlers, see NioChannel.addInboundHandler().
+public interface IExecutorGroup {
+  // Executor for a new handler. A handler keeps it for its life time.
+  SingleThreadExecutor next();
+
+  // Stop handing out executors. Executors handed out still run tasks submitted so far.
+  void shutdown();
+}
@@ -0,0 +1,13 @@
+package multithread;
+
+import java.util.concurrent.TimeUnit;
+
+import multithread.IFuture;
+
+public interface IScheduledFuture<V> extends IFuture<V> {
+  // Remaining delay until the task is due to run next, 0 if already due.
+  long getDelay(TimeUnit unit);
+
+  // If the task runs repeatedly. A periodic task is never done unless cancelled or failed.
+  boolean isPeriodic();
+}
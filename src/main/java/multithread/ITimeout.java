@@ -0,0 +1,19 @@
+package multithread;
+
+import multithread.ITimer;
+import multithread.ITimerTask;
+
+// Handle of a task scheduled by ITimer.
+public interface ITimeout {
+  ITimer timer();
+
+  ITimerTask task();
+
+  // If the task was run.
+  boolean isExpired();
+
+  boolean isCancelled();
+
+  // Cancel the task. Returns false if it is already expired or cancelled.
+  boolean cancel();
+}
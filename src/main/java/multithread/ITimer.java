@@ -0,0 +1,14 @@
+package multithread;
+
+import java.util.concurrent.TimeUnit;
+
+import multithread.ITimeout;
+import multithread.ITimerTask;
+
+public interface ITimer {
+  // Run the task once after the delay.
+  ITimeout newTimeout(ITimerTask task, long delay, TimeUnit unit);
+
+  // Stop the timer. Pending timeouts are cancelled and never run.
+  void stop();
+}
@@ -0,0 +1,9 @@
+package multithread;
+
+import multithread.ITimeout;
+
+public interface ITimerTask {
+  // Called by the timer when the timeout expires. The timer prints an exception thrown here and
+  // goes on, nobody else sees it.
+  void run(ITimeout timeout) throws Exception;
+}
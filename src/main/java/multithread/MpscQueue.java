@@ -0,0 +1,85 @@
+package multithread;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.Consumer;
+
+// Lock-free multi-producer single-consumer queue. Any thread may offer(), while poll(), drain() and
+// isEmpty() must only be called by the single consumer thread.
+//
+// It is a linked list with a stub node at head. A producer swaps itself in as the new tail with a
+// single atomic getAndSet, then links the previous tail to it. Between the two steps the queue is
+// not empty, but the consumer can not reach the new node yet, so it spins until the link is set.
+public class MpscQueue<E> {
+  private static final class Node<E> {
+    E value;
+    volatile Node<E> next;
+
+    Node(E value) {
+      this.value = value;
+    }
+  }
+
+  @SuppressWarnings("rawtypes")
+  private static final AtomicReferenceFieldUpdater<MpscQueue, Node> TAIL_UPDATER =
+      AtomicReferenceFieldUpdater.newUpdater(MpscQueue.class, Node.class, "tail");
+
+  // Owned by consumer. Its value is always null.
+  private Node<E> head;
+  private volatile Node<E> tail;
+
+  public MpscQueue() {
+    head = new Node<E>(null);
+    tail = head;
+  }
+
+  @SuppressWarnings("unchecked")
+  public void offer(E e) {
+    if (e == null) {
+      throw new NullPointerException();
+    }
+    Node<E> node = new Node<E>(e);
+    Node<E> prev = TAIL_UPDATER.getAndSet(this, node);
+    prev.next = node;
+  }
+
+  public E poll() {
+    if (head == tail) {
+      return null;
+    }
+    return take(nextOf(head));
+  }
+
+  public boolean isEmpty() {
+    return head == tail;
+  }
+
+  // Remove and consume elements offered before this call. Elements offered meanwhile, e.g. by the
+  // consumer, are left for the next call. Returns the number of elements consumed.
+  public int drain(Consumer<? super E> consumer) {
+    Node<E> last = tail;
+    int count = 0;
+    while (head != last) {
+      consumer.accept(take(nextOf(head)));
+      count++;
+    }
+    return count;
+  }
+
+  // Wait for a producer in the middle of offer() to link the node.
+  private static <E> Node<E> nextOf(Node<E> node) {
+    Node<E> next;
+    while ((next = node.next) == null) {
+      Thread.yield();
+    }
+    return next;
+  }
+
+  // The node becomes the new stub head.
+  private E take(Node<E> next) {
+    E value = next.value;
+    next.value = null;
+    head.next = null;
+    head = next;
+    return value;
+  }
+}
@@ -3,8 +3,11 @@ package multithread;
 import java.lang.Runnable;
 import java.lang.Thread;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 import multithread.IExecutor;
+import multithread.IFuture;
+import multithread.IScheduledFuture;
 
 public interface SingleThreadExecutor extends IExecutor {
   // Get internal thread.
@@ -16,10 +19,27 @@ public interface SingleThreadExecutor extends IExecutor {
   // If current thread is the executing thread of this executor.
   boolean threadRunning();
 
+  // Run a task once after the delay.
+  IScheduledFuture<?> schedule(Runnable runnable, long delay, TimeUnit unit);
+
+  <V> IScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit);
+
+  // Run a task periodically. Runs start every period after the initial delay, regardless of how
+  // long each run takes. Runs missed because the executor was busy are skipped, not caught up.
+  IScheduledFuture<?> scheduleAtFixedRate(
+      Runnable runnable, long initialDelay, long period, TimeUnit unit);
+
+  // Run a task periodically, waiting for delay between the end of a run and start of the next one.
+  IScheduledFuture<?> scheduleWithFixedDelay(
+      Runnable runnable, long initialDelay, long delay, TimeUnit unit);
+
   // Stop the executor. This is graceful stop, which will wait for all pending tasks to be done.
   // Mostly it should be followed by awaitTermination;
   void stop();
 
   // Wait for all tasks to be done.
   void awaitTermination();
+
+  // Done when the executor thread has exited.
+  IFuture<Void> terminationFuture();
 }
@@ -2,13 +2,22 @@ package multithread;
 
 import java.lang.Runnable;
 import java.lang.Thread;
+import java.util.PriorityQueue;
 import java.util.concurrent.Callable;
-import java.util.Queue;
-import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
 
 import multithread.AbstractFuture;
+import multithread.DefaultPromise;
+import multithread.MpscQueue;
 import multithread.SingleThreadExecutor;
 import multithread.IFuture;
+import multithread.IScheduledFuture;
 
 // Single-threaded queued task executor.
 public class TaskExecutor implements SingleThreadExecutor {
@@ -66,6 +75,99 @@ public class TaskExecutor implements SingleThreadExecutor {
     }
   }
 
+  // Task run at a deadline, on nanoTime() of this class. Only the worker touches scheduledTasks, so
+  // other threads add or remove a task through a task of the worker.
+  protected class ScheduledFutureTask<V> extends FutureTask<V>
+      implements IScheduledFuture<V>, Comparable<ScheduledFutureTask<?>> {
+    private long deadlineNanos;
+    // > 0 for fixed rate, < 0 for fixed delay, 0 for a one-shot task.
+    private final long periodNanos;
+    // Breaks ties of deadline, so that tasks due at the same time run in order of scheduling.
+    private final long sequence = nextSequence.getAndIncrement();
+
+    public ScheduledFutureTask(Callable<V> callable, long deadlineNanos) {
+      super(callable);
+      this.deadlineNanos = deadlineNanos;
+      this.periodNanos = 0;
+    }
+
+    public ScheduledFutureTask(Runnable runnable, long deadlineNanos, long periodNanos) {
+      super(runnable);
+      this.deadlineNanos = deadlineNanos;
+      this.periodNanos = periodNanos;
+    }
+
+    public long deadlineNanos() {
+      return deadlineNanos;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(Math.max(0, deadlineNanos - nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public boolean isPeriodic() {
+      return periodNanos != 0;
+    }
+
+    @Override
+    public int compareTo(ScheduledFutureTask<?> other) {
+      if (deadlineNanos != other.deadlineNanos) {
+        return deadlineNanos < other.deadlineNanos ? -1 : 1;
+      }
+      return Long.compare(sequence, other.sequence);
+    }
+
+    @Override
+    public void run() {
+      if (periodNanos == 0) {
+        super.run();
+        return;
+      }
+
+      if (isDone()) {
+        return;
+      }
+      try {
+        super.task.call();
+      } catch (Exception e) {
+        // A failed run stops the task.
+        setFailure(e);
+        return;
+      }
+      // TaskExecutor.State is qualified here, as Future.State of Java 19+ would shadow it.
+      if (isDone() || state == TaskExecutor.State.STOPPED) {
+        return;
+      }
+      long now = nanoTime();
+      if (periodNanos > 0) {
+        deadlineNanos += periodNanos;
+        if (deadlineNanos < now) {
+          // Skip missed runs, keeping the phase.
+          deadlineNanos += (now - deadlineNanos + periodNanos - 1) / periodNanos * periodNanos;
+        }
+      } else {
+        deadlineNanos = now - periodNanos;
+      }
+      scheduledTasks.add(this);
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      if (!super.cancel(mayInterruptIfRunning)) {
+        return false;
+      }
+      // Do not keep a cancelled task until its deadline.
+      if (threadRunning()) {
+        scheduledTasks.remove(this);
+      } else if (state != TaskExecutor.State.STOPPED) {
+        execute(() -> { scheduledTasks.remove(this); });
+      }
+      return true;
+    }
+  }
+
   protected class RunnableToCallableAdapter<V> implements Callable<V> {
     private Runnable runnable;
 
@@ -89,9 +191,32 @@ public class TaskExecutor implements SingleThreadExecutor {
 
   protected Thread worker;
 
-  protected Queue<FutureTask<?>> tasks = new LinkedList<FutureTask<?>>();
+  // Tasks are offered by any thread and run by the worker only. Submitting takes no lock. The
+  // worker parks when idle, and is unparked by submitters that see it IDLE.
+  protected MpscQueue<FutureTask<?>> tasks = new MpscQueue<FutureTask<?>>();
   protected volatile State state = State.INIT;
-  protected Object lock = new Object();
+  // Submitters that passed the STOPPED check and may not have queued their task yet. The worker
+  // waits for them before it exits, so that a task is either rejected or executed.
+  private final AtomicInteger pendingSubmits = new AtomicInteger();
+
+  private final DefaultPromise<Void> terminationFuture = new DefaultPromise<Void>();
+
+  // Tasks queued and run, for pendingTasks(). Submitters add to a LongAdder, which does not contend
+  // like a single atomic counter. Only the worker writes completedTasks, once per batch of tasks.
+  private final LongAdder queuedTasks = new LongAdder();
+  private volatile long completedTasks;
+
+  // Tasks scheduled to run later, ordered by deadline. Accessed by worker only.
+  protected final PriorityQueue<ScheduledFutureTask<?>> scheduledTasks =
+      new PriorityQueue<ScheduledFutureTask<?>>();
+  private static final AtomicLong nextSequence = new AtomicLong();
+  private static final long START_TIME = System.nanoTime();
+
+  // Created once, so that draining tasks allocates nothing.
+  private final Consumer<FutureTask<?>> taskRunner = this::runTask;
+
+  private static final AtomicReferenceFieldUpdater<TaskExecutor, State> STATE_UPDATER =
+      AtomicReferenceFieldUpdater.newUpdater(TaskExecutor.class, State.class, "state");
 
   public TaskExecutor() {
     this.worker = new Thread(() -> { this.runWorker(); });
@@ -134,59 +259,213 @@ public class TaskExecutor implements SingleThreadExecutor {
     return submit0(ftask) ? ftask : null;
   }
 
+  // Clock of scheduled tasks. Relative to class loading, so deadlines do not overflow.
+  protected static long nanoTime() {
+    return System.nanoTime() - START_TIME;
+  }
+
+  @Override
+  public IScheduledFuture<?> schedule(Runnable runnable, long delay, TimeUnit unit) {
+    return schedule(new ScheduledFutureTask<Void>(runnable, deadline(delay, unit), 0));
+  }
+
+  @Override
+  public <V> IScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+    return schedule(new ScheduledFutureTask<V>(callable, deadline(delay, unit)));
+  }
+
+  @Override
+  public IScheduledFuture<?> scheduleAtFixedRate(
+      Runnable runnable, long initialDelay, long period, TimeUnit unit) {
+    if (period <= 0) {
+      throw new IllegalArgumentException("period must be > 0: " + period);
+    }
+    return schedule(new ScheduledFutureTask<Void>(
+        runnable, deadline(initialDelay, unit), unit.toNanos(period)));
+  }
+
+  @Override
+  public IScheduledFuture<?> scheduleWithFixedDelay(
+      Runnable runnable, long initialDelay, long delay, TimeUnit unit) {
+    if (delay <= 0) {
+      throw new IllegalArgumentException("delay must be > 0: " + delay);
+    }
+    return schedule(new ScheduledFutureTask<Void>(
+        runnable, deadline(initialDelay, unit), -unit.toNanos(delay)));
+  }
+
+  private static long deadline(long delay, TimeUnit unit) {
+    return nanoTime() + unit.toNanos(Math.max(0, delay));
+  }
+
+  private <V> IScheduledFuture<V> schedule(ScheduledFutureTask<V> task) {
+    if (threadRunning()) {
+      scheduledTasks.add(task);
+      return task;
+    }
+    // Adding the task wakes up worker, which then waits for the new nearest deadline.
+    return submit(() -> { scheduledTasks.add(task); }) != null ? task : null;
+  }
+
+  // Nanoseconds until the nearest scheduled task is due, 0 if one is due already, or -1 if there is
+  // no scheduled task.
+  protected long nextScheduledTaskDelayNanos() {
+    ScheduledFutureTask<?> task = scheduledTasks.peek();
+    if (task == null) {
+      return -1;
+    }
+    return Math.max(0, task.deadlineNanos() - nanoTime());
+  }
+
+  // Move scheduled tasks that are due to the task queue.
+  protected void fetchScheduledTasks() {
+    if (scheduledTasks.isEmpty()) {
+      return;
+    }
+    long now = nanoTime();
+    ScheduledFutureTask<?> task;
+    while ((task = scheduledTasks.peek()) != null && task.deadlineNanos() <= now) {
+      scheduledTasks.poll();
+      this.tasks.offer(task);
+      queuedTasks.increment();
+    }
+  }
+
+  // Called by worker when it exits. Scheduled tasks not due yet never run.
+  protected void cancelScheduledTasks() {
+    ScheduledFutureTask<?> task;
+    while ((task = scheduledTasks.poll()) != null) {
+      task.cancel(false);
+    }
+  }
+
+  // Change state unless it is STOPPED, which is final. Only the worker switches between IDLE and
+  // RUNNING, while stop() may come from any thread.
+  protected boolean casState(State expect, State update) {
+    return STATE_UPDATER.compareAndSet(this, expect, update);
+  }
+
   protected boolean submit0(FutureTask<?> task) {
-    synchronized(this.lock) {
+    pendingSubmits.incrementAndGet();
+    try {
       if (this.state == State.STOPPED) {
         System.err.println("Thread pool is stopped, cannot add task");
         return false;
       }
       this.tasks.offer(task);
-      this.state = State.RUNNING;
-      this.lock.notify();
+      queuedTasks.increment();
+    } finally {
+      pendingSubmits.decrementAndGet();
+    }
+    // The worker sets IDLE before checking the queue, and we offer before checking IDLE, so either
+    // it sees the task or we see it IDLE.
+    if (this.state == State.IDLE) {
+      wakeup();
+    }
+    return true;
+  }
+
+  // Wake up the worker waiting for tasks.
+  protected void wakeup() {
+    LockSupport.unpark(this.worker);
+  }
+
+  // Called by worker after stop(). Returns true if tasks submitted before stop() are all run.
+  protected boolean drainAfterStop() {
+    if (pendingSubmits.get() > 0 || !this.tasks.isEmpty()) {
+      runTasks();
+      return false;
     }
     return true;
   }
 
+  // Run tasks queued so far. Returns the number of tasks run.
+  protected int runTasks() {
+    fetchScheduledTasks();
+    int count = this.tasks.drain(this.taskRunner);
+    tasksCompleted(count);
+    return count;
+  }
+
+  // Called by worker after running a batch of tasks.
+  protected void tasksCompleted(int count) {
+    if (count > 0) {
+      // Single writer, so read-modify-write of the volatile field is safe.
+      completedTasks += count;
+    }
+  }
+
+  // Approximate number of tasks waiting in queue, as a load hint. It may be off by tasks being
+  // submitted or run at the moment.
+  public int pendingTasks() {
+    long pending = queuedTasks.sum() - completedTasks;
+    return (int)Math.max(0, Math.min(pending, Integer.MAX_VALUE));
+  }
+
+  protected void runTask(FutureTask<?> task) {
+    task.setThread(this.worker);
+    try {
+      if (!task.isCancelled()) {
+        task.run();
+      }
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+
   protected void runWorker() {
     try {
-      while (!Thread.currentThread().isInterrupted()) {
-        FutureTask<?> task;
-
-        // Wait for task to come in.
-        synchronized(this.lock) {
-          while (tasks.isEmpty() && this.state != State.STOPPED) {
-            this.state = State.IDLE;
-            this.lock.wait();
-          }
+      runWorkerLoop();
+    } finally {
+      cancelScheduledTasks();
+      terminated();
+    }
+  }
 
-          // We guarantee that all queued tasks are executed before this executor is shutdown.
-          if (this.state == State.STOPPED && this.tasks.isEmpty()) {
-            return;
-          }
+  // Called by worker as the last thing before it exits.
+  protected void terminated() {
+    terminationFuture.setSuccess(null);
+  }
 
-          task = this.tasks.poll();
-          task.setThread(this.worker);
+  private void runWorkerLoop() {
+    casState(State.IDLE, State.RUNNING);
+    while (!Thread.currentThread().isInterrupted()) {
+      // We guarantee that all queued tasks are executed before this executor is shutdown.
+      if (this.state == State.STOPPED) {
+        if (drainAfterStop()) {
+          return;
         }
+        continue;
+      }
 
-        try {
-          if (!task.isCancelled()) {
-            // New task received, run it!
-            task.run();
+      long delayNanos = nextScheduledTaskDelayNanos();
+      if (this.tasks.isEmpty() && delayNanos != 0) {
+        // Wait for task to come in, or the nearest scheduled task to be due.
+        if (casState(State.RUNNING, State.IDLE)) {
+          if (this.tasks.isEmpty()) {
+            if (delayNanos < 0) {
+              LockSupport.park(this);
+            } else {
+              LockSupport.parkNanos(this, delayNanos);
+            }
           }
-        } catch (Exception e) {
+          casState(State.IDLE, State.RUNNING);
         }
+        continue;
       }
-    } catch (InterruptedException e) {
-      e.printStackTrace();
+      runTasks();
     }
   }
 
   @Override
   public void stop() {
-    synchronized(this.lock) {
-      this.state = State.STOPPED;
-      this.lock.notifyAll();
-    }
+    this.state = State.STOPPED;
+    wakeup();
+  }
+
+  @Override
+  public IFuture<Void> terminationFuture() {
+    return terminationFuture;
   }
 
   @Override
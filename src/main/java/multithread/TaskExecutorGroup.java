@@ -1,42 +1,47 @@
 package multithread;
 
 import java.lang.IllegalArgumentException;
-import java.lang.Runnable;
-import java.lang.Thread;
-import java.util.concurrent.Callable;
-import java.util.List;
-import java.util.ArrayList;
-
-import multithread.AbstractFuture;
-import multithread.IFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import multithread.IExecutorGroup;
 import multithread.TaskExecutor;
 
-public class TaskExecutorGroup {
-  private List<TaskExecutor> executors;
-  private int size;
-  private int index;
+// A fixed set of started TaskExecutors, e.g. to run blocking handlers off EventLoops. Each call to
+// next() hands out an executor round robin. A handler pinned to one keeps the order of its events,
+// as a TaskExecutor runs tasks one by one in submission order.
+public class TaskExecutorGroup implements IExecutorGroup {
+  private final TaskExecutor[] executors;
+  private final AtomicInteger index = new AtomicInteger();
 
   public TaskExecutorGroup(int size) {
-    if (size < 0) {
+    if (size <= 0) {
       throw new IllegalArgumentException("Must specify size for TaskExecutorGroup");
     }
 
-    this.size = size;
-    this.executors = new ArrayList<TaskExecutor>();
+    this.executors = new TaskExecutor[size];
+    for (int i = 0; i < size; i++) {
+      executors[i] = new TaskExecutor();
+      executors[i].start();
+    }
   }
 
   // Get the next TaskExecutor.
+  @Override
   public TaskExecutor next() {
-    synchronized(this) {
-      int i = index % size;
-      index++;
-      if (i >= this.executors.size()) {
-        TaskExecutor newExecutor = new TaskExecutor();
-        this.executors.add(newExecutor);
-        return newExecutor;
-      } else {
-        return this.executors.get(i);
-      }
+    return executors[Math.floorMod(index.getAndIncrement(), executors.length)];
+  }
+
+  // Stop all TaskExecutors. Tasks already submitted still run.
+  @Override
+  public void shutdown() {
+    for (TaskExecutor executor : executors) {
+      executor.stop();
+    }
+  }
+
+  public void awaitTermination() {
+    for (TaskExecutor executor : executors) {
+      executor.awaitTermination();
     }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,331 @@
+package multithread;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import multithread.AbstractFuture;
+import multithread.DefaultPromise;
+import multithread.HashedWheelTimer;
+import multithread.IFuture;
+import multithread.IScheduledFuture;
+import multithread.ITimeout;
+import multithread.ITimerTask;
+import multithread.MpscQueue;
+import multithread.SingleThreadExecutor;
+
+// SingleThreadExecutor on virtual threads, for handlers that block on JDBC, files and the like.
+// Needs Java 21, and is only built with the java21 profile: mvn -Pjava21.
+//
+// Like TaskExecutor, tasks run one at a time in submission order. Unlike it, there is no long-lived
+// worker. A submitter that finds the executor idle starts a virtual thread, which runs tasks until
+// the queue is empty and then ends. At most one such thread runs at a time, handing the queue over
+// through the running flag. An idle executor holds no thread, so one per channel is cheap, see
+// VirtualThreadExecutorGroup. A task that blocks parks its virtual thread instead of a platform one.
+//
+// thread() is the virtual thread running tasks at the moment, or null if idle.
+public class VirtualThreadExecutor implements SingleThreadExecutor {
+  private static final ThreadFactory THREAD_FACTORY =
+      Thread.ofVirtual().name("VirtualThreadExecutor-", 0).factory();
+
+  // Scheduled tasks wait in a shared timer, and are queued as normal tasks when due.
+  private static class TimerHolder {
+    static final HashedWheelTimer TIMER = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+  }
+
+  private class FutureTask<V> extends AbstractFuture<V> implements Runnable {
+    protected final Callable<V> task;
+
+    FutureTask(Callable<V> callable) {
+      if (callable == null) {
+        throw new NullPointerException();
+      }
+      this.task = callable;
+    }
+
+    FutureTask(Runnable runnable) {
+      if (runnable == null) {
+        throw new NullPointerException();
+      }
+      this.task = () -> {
+        runnable.run();
+        return null;
+      };
+    }
+
+    @Override
+    public void run() {
+      try {
+        if (!isDone()) {
+          setSuccess(task.call());
+        }
+      } catch (Exception e) {
+        setFailure(e);
+      }
+    }
+  }
+
+  private class ScheduledTask<V> extends FutureTask<V>
+      implements IScheduledFuture<V>, ITimerTask {
+    // On System.nanoTime().
+    private volatile long deadlineNanos;
+    // > 0 for fixed rate, < 0 for fixed delay, 0 for a one-shot task.
+    private final long periodNanos;
+    private volatile ITimeout timeout;
+
+    ScheduledTask(Callable<V> callable, long deadlineNanos) {
+      super(callable);
+      this.deadlineNanos = deadlineNanos;
+      this.periodNanos = 0;
+    }
+
+    ScheduledTask(Runnable runnable, long deadlineNanos, long periodNanos) {
+      super(runnable);
+      this.deadlineNanos = deadlineNanos;
+      this.periodNanos = periodNanos;
+    }
+
+    void schedule() {
+      timeout = TimerHolder.TIMER.newTimeout(
+          this, deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    // Due, in timer thread.
+    @Override
+    public void run(ITimeout timeout) {
+      if (!isDone() && !submit0(this)) {
+        cancel(false);
+      }
+    }
+
+    @Override
+    public void run() {
+      if (periodNanos == 0) {
+        super.run();
+        return;
+      }
+
+      if (isDone()) {
+        return;
+      }
+      try {
+        task.call();
+      } catch (Exception e) {
+        // A failed run stops the task.
+        setFailure(e);
+        return;
+      }
+      if (isDone() || stopped) {
+        return;
+      }
+      long now = System.nanoTime();
+      long deadline = deadlineNanos;
+      if (periodNanos > 0) {
+        deadline += periodNanos;
+        if (deadline < now) {
+          // Skip missed runs, keeping the phase.
+          deadline += (now - deadline + periodNanos - 1) / periodNanos * periodNanos;
+        }
+      } else {
+        deadline = now - periodNanos;
+      }
+      deadlineNanos = deadline;
+      schedule();
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public boolean isPeriodic() {
+      return periodNanos != 0;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      if (!super.cancel(mayInterruptIfRunning)) {
+        return false;
+      }
+      ITimeout timeout = this.timeout;
+      if (timeout != null) {
+        timeout.cancel();
+      }
+      return true;
+    }
+  }
+
+  private final MpscQueue<Runnable> tasks = new MpscQueue<Runnable>();
+  // Set while a virtual thread runs tasks. Whoever sets it is the only consumer of tasks until it
+  // clears it, which also publishes its queue state to the next one.
+  private final AtomicBoolean running = new AtomicBoolean();
+  private volatile Thread worker;
+
+  private volatile boolean stopped;
+  // Submitters that passed the stopped check and may not have queued their task yet, see
+  // TaskExecutor.
+  private final AtomicInteger pendingSubmits = new AtomicInteger();
+  private final DefaultPromise<Void> terminationFuture = new DefaultPromise<Void>();
+
+  // Reused by every drain, so that starting a thread allocates only the thread.
+  private final Runnable drainer = this::drain;
+
+  @Override
+  public Thread thread() {
+    return worker;
+  }
+
+  @Override
+  public boolean isIdle() {
+    return !running.get();
+  }
+
+  @Override
+  public boolean threadRunning() {
+    return worker == Thread.currentThread();
+  }
+
+  @Override
+  public void execute(Runnable runnable) {
+    submit(runnable);
+  }
+
+  @Override
+  public IFuture<?> submit(Runnable runnable) {
+    FutureTask<Void> ftask = new FutureTask<Void>(runnable);
+    return submit0(ftask) ? ftask : null;
+  }
+
+  @Override
+  public <V> IFuture<V> submit(Callable<V> callable) {
+    FutureTask<V> ftask = new FutureTask<V>(callable);
+    return submit0(ftask) ? ftask : null;
+  }
+
+  @Override
+  public IScheduledFuture<?> schedule(Runnable runnable, long delay, TimeUnit unit) {
+    return schedule(new ScheduledTask<Void>(runnable, deadline(delay, unit), 0));
+  }
+
+  @Override
+  public <V> IScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+    return schedule(new ScheduledTask<V>(callable, deadline(delay, unit)));
+  }
+
+  @Override
+  public IScheduledFuture<?> scheduleAtFixedRate(
+      Runnable runnable, long initialDelay, long period, TimeUnit unit) {
+    if (period <= 0) {
+      throw new IllegalArgumentException("period must be > 0: " + period);
+    }
+    return schedule(new ScheduledTask<Void>(
+        runnable, deadline(initialDelay, unit), unit.toNanos(period)));
+  }
+
+  @Override
+  public IScheduledFuture<?> scheduleWithFixedDelay(
+      Runnable runnable, long initialDelay, long delay, TimeUnit unit) {
+    if (delay <= 0) {
+      throw new IllegalArgumentException("delay must be > 0: " + delay);
+    }
+    return schedule(new ScheduledTask<Void>(
+        runnable, deadline(initialDelay, unit), -unit.toNanos(delay)));
+  }
+
+  private static long deadline(long delay, TimeUnit unit) {
+    return System.nanoTime() + unit.toNanos(Math.max(0, delay));
+  }
+
+  private <V> ScheduledTask<V> schedule(ScheduledTask<V> task) {
+    if (stopped) {
+      System.err.println("Thread pool is stopped, cannot add task");
+      return null;
+    }
+    task.schedule();
+    return task;
+  }
+
+  // Stop accepting tasks. Tasks submitted before still run. Scheduled tasks not due yet never run.
+  @Override
+  public void stop() {
+    stopped = true;
+    // Start a drain even if the queue is empty, to complete terminationFuture.
+    startDrain();
+  }
+
+  @Override
+  public void awaitTermination() {
+    try {
+      terminationFuture.await();
+    } catch (InterruptedException e) {
+      e.printStackTrace();
+    }
+  }
+
+  @Override
+  public IFuture<Void> terminationFuture() {
+    return terminationFuture;
+  }
+
+  private boolean submit0(Runnable task) {
+    boolean accepted;
+    pendingSubmits.incrementAndGet();
+    try {
+      accepted = !stopped;
+      if (accepted) {
+        tasks.offer(task);
+      }
+    } finally {
+      pendingSubmits.decrementAndGet();
+    }
+    if (!accepted) {
+      System.err.println("Thread pool is stopped, cannot add task");
+      // A drain may have skipped terminating while we were pending. Let one finish it.
+      if (!terminationFuture.isDone()) {
+        startDrain();
+      }
+      return false;
+    }
+    // We offer before checking running, and the draining thread clears running before checking the
+    // queue, so either it sees the task or we see it cleared.
+    startDrain();
+    return true;
+  }
+
+  private void startDrain() {
+    if (running.compareAndSet(false, true)) {
+      THREAD_FACTORY.newThread(drainer).start();
+    }
+  }
+
+  private void drain() {
+    worker = Thread.currentThread();
+    while (true) {
+      Runnable task;
+      while ((task = tasks.poll()) != null) {
+        try {
+          task.run();
+        } catch (Throwable e) {
+          e.printStackTrace();
+        }
+      }
+      if (stopped && pendingSubmits.get() == 0 && tasks.isEmpty()) {
+        terminationFuture.setSuccess(null);
+      }
+
+      worker = null;
+      running.set(false);
+      // Go on for a task offered after the last poll() whose submitter still saw running set, or a
+      // stop() whose startDrain() failed as running was still set. Like submitters, stop() sets its
+      // flag before checking running, so either it drains or we see the flag.
+      boolean unfinished = !tasks.isEmpty() || (stopped && !terminationFuture.isDone());
+      if (!unfinished || !running.compareAndSet(false, true)) {
+        return;
+      }
+      worker = Thread.currentThread();
+    }
+  }
+}
@@ -0,0 +1,26 @@
+package multithread;
+
+import multithread.IExecutorGroup;
+import multithread.VirtualThreadExecutor;
+
+// Gives every handler its own VirtualThreadExecutor, so that channels never wait on each other,
+// however many of their handlers block. Needs Java 21, see VirtualThreadExecutor.
+//
+// Executors are not tracked. An idle one holds no thread and is collected with its channel.
+public class VirtualThreadExecutorGroup implements IExecutorGroup {
+  private volatile boolean shutdown;
+
+  @Override
+  public VirtualThreadExecutor next() {
+    if (shutdown) {
+      throw new IllegalStateException("VirtualThreadExecutorGroup is shut down");
+    }
+    return new VirtualThreadExecutor();
+  }
+
+  // Stop handing out executors. Those handed out finish their queued tasks and go idle.
+  @Override
+  public void shutdown() {
+    shutdown = true;
+  }
+}
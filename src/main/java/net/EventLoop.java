@@ -1,13 +1,23 @@
 package net;
 
 import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.log4j.Logger;
 
+import buffer.PooledByteBufAllocator;
 import channel.BaseChannel;
 import channel.ChannelExceptions;
+import multithread.IFuture;
 import multithread.TaskExecutor;
 import net.EventLoopGroup;
 
@@ -15,8 +25,55 @@ public class EventLoop extends TaskExecutor {
   private static final Logger log = Logger.getLogger(EventLoop.class);
   private static final int SELECT_TIMOUT_MILLISECONDS = 1000;
 
+  // Swap an array-backed set into the selector for its selected keys, see openSelector().
+  private static final boolean OPTIMIZE_SELECTED_KEYS =
+      !Boolean.getBoolean("river.eventLoop.noKeySetOptimization");
+
+  // Tasks are run with a deadline checked every CHECK_DEADLINE_INTERVAL tasks, as nanoTime() is
+  // not free either. Must be a power of 2.
+  private static final int CHECK_DEADLINE_INTERVAL = 64;
+
+  // Epoll selectors on Linux have a bug that makes select() return at once with nothing selected,
+  // over and over, spinning the loop at 100% CPU. After this many such returns in a row, the
+  // selector is replaced. 0 disables it.
+  private static final int SELECTOR_AUTO_REBUILD_THRESHOLD = Math.max(0,
+      Integer.getInteger("river.eventLoop.selectorAutoRebuildThreshold", 512));
+
+  // How often a loop shutting down gracefully checks its quiet period and timeout when idle.
+  private static final long SHUTDOWN_POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
   private EventLoopGroup group;
-  private Selector selector;
+  // Volatile as wakeup() reads it from other threads, and rebuildSelector() replaces it.
+  private volatile Selector selector;
+  // Selected keys of selector if the optimization is in effect, otherwise null.
+  private SelectedSelectionKeySet selectedKeys;
+
+  // If selector.wakeup() was already called since the loop last went to select. Each wakeup() is a
+  // syscall, and one is enough to break a select, so later submitters skip it.
+  private final AtomicBoolean wakenUp = new AtomicBoolean();
+
+  // Percentage of loop time for IO. After processIO(), tasks may run for
+  // ioTime * (100 - ioRatio) / ioRatio. At 100, all queued tasks run regardless of time.
+  private volatile int ioRatio = 50;
+  private final EventLoopMetrics metrics = new EventLoopMetrics();
+  // If runTasks(long) stopped at the deadline in this iteration.
+  private boolean taskBudgetExceeded;
+  // Channels registered to selector, as a load hint for EventLoopGroup.
+  private final AtomicInteger registeredChannels = new AtomicInteger();
+  // Blocking selects in a row that returned early for no reason.
+  private int prematureSelects;
+
+  // Set by shutdownGracefully(). Times are written before the flag, and read after it.
+  private volatile boolean shuttingDown;
+  private volatile long quietPeriodNanos;
+  private volatile long shutdownTimeoutNanos;
+  // Progress of graceful shutdown, accessed in EventLoop only.
+  private boolean shutdownStarted;
+  private long shutdownStartTime;
+  private long lastActivityTime;
+  private boolean closingChannels;
+  // Channels close() was called on, so that it is called once.
+  private final Set<BaseChannel> closeRequested = new HashSet<BaseChannel>();
 
   // Constructors.
   public EventLoop() throws IOException {
@@ -27,43 +84,217 @@ public class EventLoop extends TaskExecutor {
     super();
 
     this.group = group;
-    this.selector = Selector.open();
+    this.selector = openSelector();
+  }
+
+  // Open a selector. If possible, replace the HashSet holding its selected keys with a
+  // SelectedSelectionKeySet, so that processIO() iterates an array. The fields are private to JDK
+  // internal sun.nio.ch.SelectorImpl. Reflection works up to JDK 8. Newer JDKs deny it without
+  // --add-opens, so Unsafe is tried next. If both fail, the selector is used as it is.
+  private Selector openSelector() throws IOException {
+    Selector selector = Selector.open();
+    if (!OPTIMIZE_SELECTED_KEYS) {
+      return selector;
+    }
+
+    SelectedSelectionKeySet keySet = new SelectedSelectionKeySet();
+    try {
+      Class<?> selectorImplClass = Class.forName(
+          "sun.nio.ch.SelectorImpl", false, ClassLoader.getSystemClassLoader());
+      if (!selectorImplClass.isAssignableFrom(selector.getClass())) {
+        return selector;
+      }
+      Field[] fields = new Field[] {
+          selectorImplClass.getDeclaredField("selectedKeys"),
+          selectorImplClass.getDeclaredField("publicSelectedKeys"),
+      };
+      if (!setFields(selector, fields, keySet)) {
+        return selector;
+      }
+      this.selectedKeys = keySet;
+      log.debug("Selected keys optimization enabled for " + selector);
+    } catch (ClassNotFoundException | NoSuchFieldException | SecurityException e) {
+      log.debug("Selected keys optimization unavailable: " + e);
+    }
+    return selector;
+  }
+
+  // Set all fields or none of them.
+  private static boolean setFields(Object object, Field[] fields, Object value) {
+    try {
+      for (Field field : fields) {
+        field.setAccessible(true);
+      }
+      for (Field field : fields) {
+        field.set(object, value);
+      }
+      return true;
+    } catch (RuntimeException | IllegalAccessException e) {
+      // InaccessibleObjectException on JDK 9+, fall back to Unsafe.
+    }
+    try {
+      // sun.misc.Unsafe is looked up by reflection, so that compiling needs no internal API.
+      Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+      Field unsafeField = unsafeClass.getDeclaredField("theUnsafe");
+      unsafeField.setAccessible(true);
+      Object unsafe = unsafeField.get(null);
+      Method objectFieldOffset = unsafeClass.getMethod("objectFieldOffset", Field.class);
+      Method putObject = unsafeClass.getMethod("putObject", Object.class, long.class, Object.class);
+      long[] offsets = new long[fields.length];
+      for (int i = 0; i < fields.length; i++) {
+        offsets[i] = (Long)objectFieldOffset.invoke(unsafe, fields[i]);
+      }
+      for (long offset : offsets) {
+        putObject.invoke(unsafe, object, offset, value);
+      }
+      return true;
+    } catch (Throwable e) {
+      log.debug("Failed to set selected keys of selector: " + e);
+      return false;
+    }
   }
 
   public Selector getSelector() {
     return this.selector;
   }
 
+  // Register a channel to selector with the BaseChannel as attachment. Must run in EventLoop.
+  public SelectionKey register(SelectableChannel javaChannel, int interestOps, BaseChannel channel)
+      throws ClosedChannelException {
+    SelectionKey key = javaChannel.register(selector, interestOps, channel);
+    registeredChannels.incrementAndGet();
+    return key;
+  }
+
+  // Cancel the key of a channel registered by register(). Must run in EventLoop, before the channel
+  // is closed, which would cancel the key too.
+  public void deregister(SelectionKey key) {
+    if (key != null && key.isValid()) {
+      key.cancel();
+      registeredChannels.decrementAndGet();
+    }
+  }
+
+  public int registeredChannels() {
+    return registeredChannels.get();
+  }
+
+  public int getIoRatio() {
+    return ioRatio;
+  }
+
+  public void setIoRatio(int ioRatio) {
+    if (ioRatio <= 0 || ioRatio > 100) {
+      throw new IllegalArgumentException("ioRatio must be in (0, 100]: " + ioRatio);
+    }
+    this.ioRatio = ioRatio;
+  }
+
+  public EventLoopMetrics metrics() {
+    return metrics;
+  }
+
+  // EventLoop waits in select() instead of parking.
   @Override
-  protected boolean submit0(FutureTask<?> task) {
-    if (super.submit0(task)) {
+  protected void wakeup() {
+    if (wakenUp.compareAndSet(false, true)) {
       selector.wakeup();
-      return true;
     }
-    return false;
+  }
+
+  // Stop once no task has run for the quiet period: flush all channels, close each when its
+  // outbound data is written, then exit. The timeout bounds the whole process, after which channels
+  // are closed as they are. Tasks keep being accepted until the loop exits. Returns
+  // terminationFuture().
+  public IFuture<Void> shutdownGracefully(long quietPeriod, long timeout, TimeUnit unit) {
+    if (quietPeriod < 0) {
+      throw new IllegalArgumentException("quietPeriod must be >= 0: " + quietPeriod);
+    }
+    if (timeout < quietPeriod) {
+      throw new IllegalArgumentException(
+          "timeout must be >= quietPeriod (" + quietPeriod + "): " + timeout);
+    }
+    if (!shuttingDown) {
+      quietPeriodNanos = unit.toNanos(quietPeriod);
+      shutdownTimeoutNanos = unit.toNanos(timeout);
+      shuttingDown = true;
+      wakeup();
+    }
+    return terminationFuture();
+  }
+
+  public boolean isShuttingDown() {
+    return shuttingDown || this.state == State.STOPPED;
+  }
+
+  // Close the selector of an EventLoop that was never started, e.g. when EventLoopGroup fails to
+  // create the others. A started EventLoop closes it itself when it exits.
+  void close() {
+    try {
+      selector.close();
+    } catch (IOException e) {
+      log.warn("Failed to close selector: " + e);
+    }
   }
 
   @Override
   protected void runWorker() {
+    // Buffers are mostly allocated and released in EventLoop, give it a thread cache.
+    PooledByteBufAllocator.attachThreadCache();
+    try {
+      runLoop();
+      // Reject new tasks, and run those already submitted.
+      this.state = State.STOPPED;
+      while (!drainAfterStop()) {
+        // Submitters in progress, see TaskExecutor.submit0().
+      }
+    } finally {
+      cancelScheduledTasks();
+      try {
+        selector.close();
+      } catch (IOException e) {
+        log.warn("Failed to close selector: " + e);
+      }
+      PooledByteBufAllocator.detachThreadCache();
+      terminated();
+    }
+  }
+
+  private void runLoop() {
+    casState(State.IDLE, State.RUNNING);
     while (this.state != State.STOPPED && !Thread.currentThread().isInterrupted()) {
-      boolean hasTasks = false;
-      synchronized(this.lock) {
-        // To prevent race condition, we need to check state != STOPPED again. Otherwise it can
-        // be changed to IDLE and invalidates a previous call of stop().
-        if (this.state == State.STOPPED) {
+      long delayNanos = nextScheduledTaskDelayNanos();
+      boolean hasTasks = !tasks.isEmpty() || delayNanos == 0;
+      if (shuttingDown && (delayNanos < 0 || delayNanos > SHUTDOWN_POLL_NANOS)) {
+        // Wake up now and then to check the quiet period.
+        delayNanos = SHUTDOWN_POLL_NANOS;
+      }
+      if (!hasTasks) {
+        // Submitters wake up selector only when they see IDLE. Reset wakenUp before that, so a
+        // submitter seeing IDLE also sees wakenUp cleared and does wake up selector. casState()
+        // fails if stop() was called, so it never overrides STOPPED.
+        wakenUp.set(false);
+        if (!casState(State.RUNNING, State.IDLE)) {
           return;
         }
-        if (tasks.isEmpty()) {
-          this.state = State.IDLE;
-          hasTasks = false;
-        }
+        // Check again, a task may have come in before IDLE was set.
+        hasTasks = !tasks.isEmpty();
       }
 
       try {
-        // If task queue is empty, we enter a blocking select, otherwise do selectNow.
+        // If task queue is empty, we enter a blocking select until the nearest scheduled task is
+        // due, otherwise do selectNow.
         if (!hasTasks) {
           // log.info("Blocking Select");
-          selector.select();
+          long selectStart = System.nanoTime();
+          int selected;
+          if (delayNanos < 0) {
+            selected = selector.select();
+          } else {
+            // Round up, select(0) blocks forever.
+            selected = selector.select((delayNanos + 999999) / 1000000);
+          }
+          checkPrematureSelect(selected, selectStart, delayNanos);
         } else {
           // log.info("SelectNow");
           selector.selectNow();
@@ -72,12 +303,207 @@ public class EventLoop extends TaskExecutor {
         e.printStackTrace();
       }
 
+      casState(State.IDLE, State.RUNNING);
+
+      long ioStart = System.nanoTime();
       processIO();
-      runTasks();
+      long ioEnd = System.nanoTime();
+
+      // Tasks left over run in the next iteration, after a selectNow().
+      long budget = taskBudgetNanos(ioEnd - ioStart, ioRatio);
+      int tasksRun;
+      taskBudgetExceeded = false;
+      if (budget < 0) {
+        tasksRun = runTasks();
+      } else {
+        tasksRun = runTasks(budget);
+      }
+      long taskTime = tasksRun > 0 ? System.nanoTime() - ioEnd : 0;
+      metrics.recordIteration(ioEnd - ioStart, taskTime, tasksRun, taskBudgetExceeded);
+
+      if (shuttingDown && confirmShutdown(tasksRun)) {
+        return;
+      }
+    }
+  }
+
+  // Called every iteration after shutdownGracefully(). Returns true if the loop may exit, that is
+  // all channels are closed after the quiet period, or the timeout passed and the channels left are
+  // closed forcibly.
+  private boolean confirmShutdown(int tasksRun) {
+    long now = System.nanoTime();
+    if (!shutdownStarted) {
+      shutdownStarted = true;
+      shutdownStartTime = now;
+      lastActivityTime = now;
+    }
+    if (tasksRun > 0) {
+      lastActivityTime = now;
+    }
+    boolean timedOut = now - shutdownStartTime >= shutdownTimeoutNanos;
+    if (!closingChannels) {
+      if (!timedOut && now - lastActivityTime < quietPeriodNanos) {
+        return false;
+      }
+      closingChannels = true;
+      flushChannels();
+    }
+    if (timedOut) {
+      closeChannels(true);
+      return true;
+    }
+    return closeChannels(false) == 0;
+  }
+
+  private void flushChannels() {
+    for (SelectionKey key : selector.keys()) {
+      Object attachment = key.attachment();
+      if (!key.isValid() || !(attachment instanceof BaseChannel)) {
+        continue;
+      }
+      BaseChannel channel = (BaseChannel)attachment;
+      if (channel.pendingOutboundBytes() > 0) {
+        channel.flush(channel.voidPromise());
+      }
+    }
+  }
+
+  // Close channels whose outbound data is all written, or all of them if force is set. Returns the
+  // number of channels left open.
+  //
+  // A channel counts as open until its close future is done, not when close() returns. With an
+  // outbound handler bound to another executor, the close comes back to this loop as a task later,
+  // and must run before the loop stops accepting tasks. If force is set, channels whose close has
+  // not got through the pipeline are closed at the transport instead.
+  private int closeChannels(boolean force) {
+    int open = 0;
+    // Copy the keys, as closing cancels them.
+    for (SelectionKey key : new ArrayList<SelectionKey>(selector.keys())) {
+      Object attachment = key.attachment();
+      if (!key.isValid() || !(attachment instanceof BaseChannel)) {
+        continue;
+      }
+      BaseChannel channel = (BaseChannel)attachment;
+      if ((force || channel.pendingOutboundBytes() == 0) && closeRequested.add(channel)) {
+        channel.close();
+      }
+      if (channel.closeFuture().isDone()) {
+        continue;
+      }
+      if (force) {
+        channel.closeForcibly();
+      } else {
+        open++;
+      }
+    }
+    return open;
+  }
+
+  // A blocking select has a reason to return: a key is selected, wakeup() was called, the timeout
+  // passed, or the thread was interrupted. Count returns with none of them, and rebuild the selector
+  // if they keep coming.
+  private void checkPrematureSelect(int selected, long selectStart, long timeoutNanos)
+      throws IOException {
+    if (selected > 0 || wakenUp.get() || Thread.currentThread().isInterrupted() ||
+        (timeoutNanos >= 0 && System.nanoTime() - selectStart >= timeoutNanos)) {
+      prematureSelects = 0;
+      return;
+    }
+    prematureSelects++;
+    if (SELECTOR_AUTO_REBUILD_THRESHOLD > 0 &&
+        prematureSelects >= SELECTOR_AUTO_REBUILD_THRESHOLD) {
+      log.warn("Selector returned prematurely " + prematureSelects +
+               " times in a row, rebuilding it");
+      rebuildSelector();
+      prematureSelects = 0;
+      // Keys may be ready on the new selector already.
+      selector.selectNow();
+    }
+  }
+
+  // Replace the selector with a new one, moving all channels with their interest ops and
+  // attachments over. Connections stay open. Must run in EventLoop, which is also where channels
+  // register, so no registration is lost to the old selector.
+  void rebuildSelector() {
+    Selector oldSelector = selector;
+    SelectedSelectionKeySet oldSelectedKeys = selectedKeys;
+    Selector newSelector;
+    try {
+      selectedKeys = null;
+      newSelector = openSelector();
+    } catch (IOException e) {
+      selectedKeys = oldSelectedKeys;
+      log.warn("Failed to open a new selector: " + e);
+      return;
+    }
+
+    int moved = 0;
+    for (SelectionKey key : oldSelector.keys()) {
+      Object attachment = key.attachment();
+      try {
+        if (!key.isValid() || key.channel().keyFor(newSelector) != null) {
+          continue;
+        }
+        int interestOps = key.interestOps();
+        key.cancel();
+        SelectionKey newKey = key.channel().register(newSelector, interestOps, attachment);
+        if (attachment instanceof BaseChannel) {
+          ((BaseChannel)attachment).setSelectionKey(newKey);
+        }
+        moved++;
+      } catch (CancelledKeyException | ClosedChannelException e) {
+        // Channel closed meanwhile. Its key is cancelled already, so deregister() on close will
+        // not count it out.
+        log.warn("Failed to move channel to the new selector: " + e);
+        registeredChannels.decrementAndGet();
+        if (attachment instanceof BaseChannel) {
+          ((BaseChannel)attachment).close();
+        }
+      }
     }
+
+    selector = newSelector;
+    try {
+      oldSelector.close();
+    } catch (IOException e) {
+      log.warn("Failed to close the old selector: " + e);
+    }
+    metrics.recordSelectorRebuild();
+    log.info("Rebuilt selector, moved " + moved + " channels");
+  }
+
+  // Time tasks may run in an iteration whose IO took ioTimeNanos, or -1 if there is no limit.
+  static long taskBudgetNanos(long ioTimeNanos, int ioRatio) {
+    if (ioRatio == 100) {
+      return -1;
+    }
+    return ioTimeNanos * (100 - ioRatio) / ioRatio;
+  }
+
+  // Run tasks until the queue is empty or the time is up. Returns the number of tasks run.
+  private int runTasks(long timeoutNanos) {
+    fetchScheduledTasks();
+    long deadline = System.nanoTime() + timeoutNanos;
+    int count = 0;
+    FutureTask<?> task;
+    while ((task = tasks.poll()) != null) {
+      runTask(task);
+      count++;
+      if ((count & (CHECK_DEADLINE_INTERVAL - 1)) == 0 && System.nanoTime() >= deadline) {
+        taskBudgetExceeded = !tasks.isEmpty();
+        break;
+      }
+    }
+    tasksCompleted(count);
+    return count;
   }
 
   private void processIO() {
+    if (selectedKeys != null) {
+      processSelectedKeysOptimized();
+      return;
+    }
+
     Set<SelectionKey> selectedKeys = selector.selectedKeys();
     Iterator<SelectionKey> it = selectedKeys.iterator();
     while (it.hasNext()) {
@@ -88,6 +514,14 @@ public class EventLoop extends TaskExecutor {
     }
   }
 
+  private void processSelectedKeysOptimized() {
+    SelectionKey[] keys = selectedKeys.keys;
+    for (int i = 0; i < selectedKeys.size; i++) {
+      processSelectedKey(keys[i]);
+    }
+    selectedKeys.reset();
+  }
+
   private void processSelectedKey(SelectionKey key) {
     BaseChannel channel = (BaseChannel)key.attachment();
     try {
@@ -96,32 +530,4 @@ public class EventLoop extends TaskExecutor {
       e.printStackTrace();
     }
   }
-
-  private void runTasks() {
-    ArrayList<FutureTask<?>> copy = new ArrayList<FutureTask<?>>();
-    synchronized(this.lock) {
-      for (FutureTask<?> task : this.tasks) {
-        copy.add(task);
-      }
-      this.tasks.clear();
-    }
-
-    for (FutureTask<?> task : copy) {
-      task.setThread(this.worker);
-      try {
-        task.run();
-      } catch (Exception e) {
-        e.printStackTrace();
-      }
-    }
-  }
-
-  @Override
-  public void stop() {
-    synchronized(this.lock) {
-      this.state = State.STOPPED;
-      this.lock.notifyAll();
-      this.selector.wakeup();
-    }
-  }
 }
@@ -0,0 +1,13 @@
+package net;
+
+import net.EventLoop;
+
+// Picks the EventLoop of a new channel in EventLoopGroup. next() may be called by many threads at
+// once, and must not block.
+public interface EventLoopChooser {
+  EventLoop next();
+
+  interface Factory {
+    EventLoopChooser newChooser(EventLoop[] eventLoops);
+  }
+}
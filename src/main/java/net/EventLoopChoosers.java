@@ -0,0 +1,91 @@
+package net;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.EventLoop;
+import net.EventLoopChooser;
+
+// Built-in EventLoopChooser factories.
+public final class EventLoopChoosers {
+  // Round robin. Masks the index when the number of EventLoops is a power of 2, otherwise takes a
+  // modulo of a long index, which does not overflow in practice.
+  public static final EventLoopChooser.Factory ROUND_ROBIN = new EventLoopChooser.Factory() {
+    @Override
+    public EventLoopChooser newChooser(EventLoop[] eventLoops) {
+      if ((eventLoops.length & (eventLoops.length - 1)) == 0) {
+        return new PowerOfTwoChooser(eventLoops);
+      }
+      return new GenericChooser(eventLoops);
+    }
+  };
+
+  // The EventLoop with the fewest registered channels plus pending tasks. It suits connections of
+  // uneven life time or traffic, where round robin piles up long-lived busy channels on some loops.
+  // Costs a scan of all EventLoops per call.
+  public static final EventLoopChooser.Factory LEAST_LOADED = new EventLoopChooser.Factory() {
+    @Override
+    public EventLoopChooser newChooser(EventLoop[] eventLoops) {
+      return new LeastLoadedChooser(eventLoops);
+    }
+  };
+
+  private EventLoopChoosers() {}
+
+  private static final class PowerOfTwoChooser implements EventLoopChooser {
+    private final AtomicInteger index = new AtomicInteger();
+    private final EventLoop[] eventLoops;
+
+    PowerOfTwoChooser(EventLoop[] eventLoops) {
+      this.eventLoops = eventLoops;
+    }
+
+    @Override
+    public EventLoop next() {
+      // Wraps around at overflow without a jump, as length divides 2^32.
+      return eventLoops[index.getAndIncrement() & (eventLoops.length - 1)];
+    }
+  }
+
+  private static final class GenericChooser implements EventLoopChooser {
+    private final AtomicLong index = new AtomicLong();
+    private final EventLoop[] eventLoops;
+
+    GenericChooser(EventLoop[] eventLoops) {
+      this.eventLoops = eventLoops;
+    }
+
+    @Override
+    public EventLoop next() {
+      return eventLoops[(int)Math.floorMod(index.getAndIncrement(), (long)eventLoops.length)];
+    }
+  }
+
+  private static final class LeastLoadedChooser implements EventLoopChooser {
+    // Where the scan starts. Rotated, so that ties, e.g. a burst of connections chosen before their
+    // registration shows up, spread round robin instead of all going to the first EventLoop.
+    private final AtomicInteger start = new AtomicInteger();
+    private final EventLoop[] eventLoops;
+
+    LeastLoadedChooser(EventLoop[] eventLoops) {
+      this.eventLoops = eventLoops;
+    }
+
+    @Override
+    public EventLoop next() {
+      int n = eventLoops.length;
+      int first = Math.floorMod(start.getAndIncrement(), n);
+      EventLoop best = null;
+      long bestLoad = Long.MAX_VALUE;
+      for (int i = 0; i < n; i++) {
+        EventLoop eventLoop = eventLoops[(first + i) % n];
+        long load = (long)eventLoop.registeredChannels() + eventLoop.pendingTasks();
+        if (load < bestLoad) {
+          best = eventLoop;
+          bestLoad = load;
+        }
+      }
+      return best;
+    }
+  }
+}
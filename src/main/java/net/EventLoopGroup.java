@@ -2,49 +2,103 @@ package net;
 
 import java.io.IOException;
 import java.lang.IllegalArgumentException;
-import java.lang.Runnable;
-import java.lang.Thread;
-import java.util.concurrent.Callable;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import multithread.DefaultPromise;
+import multithread.IFuture;
 import net.EventLoop;
+import net.EventLoopChooser;
+import net.EventLoopChoosers;
 
 public class EventLoopGroup {
-  private List<EventLoop> eventLoops;
-  private int size;
-  private int index;
+  public static final long DEFAULT_SHUTDOWN_QUIET_PERIOD_SECONDS = 2;
+  public static final long DEFAULT_SHUTDOWN_TIMEOUT_SECONDS = 15;
+
+  private final EventLoop[] eventLoops;
+  private final EventLoopChooser chooser;
+  // Done when all EventLoops have terminated.
+  private final DefaultPromise<Void> terminationFuture = new DefaultPromise<Void>();
 
   public EventLoopGroup(int size) {
-    if (size < 0) {
+    this(size, EventLoopChoosers.ROUND_ROBIN);
+  }
+
+  // All EventLoops are created and started here, so that next() takes no lock and the first
+  // connections do not pay for starting threads.
+  public EventLoopGroup(int size, EventLoopChooser.Factory chooserFactory) {
+    if (size <= 0) {
       throw new IllegalArgumentException("Must specify size for EventLoopGroup");
     }
 
-    this.size = size;
-    this.eventLoops = new ArrayList<EventLoop>();
+    this.eventLoops = new EventLoop[size];
+    for (int i = 0; i < size; i++) {
+      try {
+        eventLoops[i] = new EventLoop(this);
+      } catch (IOException e) {
+        // None is started yet, so stop() would leave their selectors open.
+        for (int j = 0; j < i; j++) {
+          eventLoops[j].close();
+        }
+        throw new IllegalStateException("Failed to create EventLoop", e);
+      }
+    }
+    for (EventLoop eventLoop : eventLoops) {
+      eventLoop.start();
+    }
+    this.chooser = chooserFactory.newChooser(eventLoops);
+
+    AtomicInteger running = new AtomicInteger(size);
+    for (EventLoop eventLoop : eventLoops) {
+      eventLoop.terminationFuture().addListener((future) -> {
+        if (running.decrementAndGet() == 0) {
+          terminationFuture.setSuccess(null);
+        }
+      });
+    }
   }
 
   // Get the next EventLoop.
-  public EventLoop next() throws IOException {
-    synchronized(this) {
-      int i = index % size;
-      index++;
-      if (i >= this.eventLoops.size()) {
-        EventLoop newEventLoop = new EventLoop(this);
-        this.eventLoops.add(newEventLoop);
-        newEventLoop.start();
-        return newEventLoop;
-      } else {
-        return this.eventLoops.get(i);
-      }
+  public EventLoop next() {
+    return chooser.next();
+  }
+
+  public List<EventLoop> eventLoops() {
+    return Collections.unmodifiableList(Arrays.asList(eventLoops));
+  }
+
+  // Set ioRatio of all EventLoops, see EventLoop.setIoRatio().
+  public void setIoRatio(int ioRatio) {
+    for (EventLoop eventLoop : eventLoops) {
+      eventLoop.setIoRatio(ioRatio);
     }
   }
 
+  // Stop all EventLoops at once. Channels are left open.
   public void shutdown() {
-    synchronized(this) {
-      for (EventLoop eventLoop : eventLoops) {
-        eventLoop.stop();
-      }
+    for (EventLoop eventLoop : eventLoops) {
+      eventLoop.stop();
+    }
+  }
+
+  public IFuture<Void> shutdownGracefully() {
+    return shutdownGracefully(DEFAULT_SHUTDOWN_QUIET_PERIOD_SECONDS,
+                              DEFAULT_SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+  }
+
+  // Shut down all EventLoops gracefully, see EventLoop.shutdownGracefully(). Returns
+  // terminationFuture().
+  public IFuture<Void> shutdownGracefully(long quietPeriod, long timeout, TimeUnit unit) {
+    for (EventLoop eventLoop : eventLoops) {
+      eventLoop.shutdownGracefully(quietPeriod, timeout, unit);
     }
+    return terminationFuture;
+  }
+
+  public IFuture<Void> terminationFuture() {
+    return terminationFuture;
   }
 }
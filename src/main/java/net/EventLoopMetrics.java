@@ -0,0 +1,69 @@
+package net;
+
+// Timings of an EventLoop, for tuning its ioRatio. Written by the EventLoop thread only, and may be
+// read from any thread. Values are cumulative since the EventLoop started.
+public class EventLoopMetrics {
+  private volatile long iterations;
+  private volatile long ioTimeNanos;
+  private volatile long taskTimeNanos;
+  private volatile long tasksRun;
+  // Iterations that stopped running tasks because the time budget ran out.
+  private volatile long taskBudgetExceeded;
+  // Selectors replaced because select() kept returning early with nothing selected.
+  private volatile long selectorRebuilds;
+
+  void recordIteration(long ioNanos, long taskNanos, int tasks, boolean budgetExceeded) {
+    // Single writer, so read-modify-write of volatile fields is safe.
+    iterations++;
+    ioTimeNanos += ioNanos;
+    taskTimeNanos += taskNanos;
+    tasksRun += tasks;
+    if (budgetExceeded) {
+      taskBudgetExceeded++;
+    }
+  }
+
+  void recordSelectorRebuild() {
+    selectorRebuilds++;
+  }
+
+  public long iterations() {
+    return iterations;
+  }
+
+  public long ioTimeNanos() {
+    return ioTimeNanos;
+  }
+
+  public long taskTimeNanos() {
+    return taskTimeNanos;
+  }
+
+  public long tasksRun() {
+    return tasksRun;
+  }
+
+  public long taskBudgetExceeded() {
+    return taskBudgetExceeded;
+  }
+
+  public long selectorRebuilds() {
+    return selectorRebuilds;
+  }
+
+  // Share of loop busy time spent on IO, in percent.
+  public double ioPercent() {
+    long io = ioTimeNanos;
+    long total = io + taskTimeNanos;
+    return total == 0 ? 0 : io * 100.0 / total;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(
+        "iterations=%d, io=%dus, tasks=%dus (%d run, budget exceeded %d times), io=%.1f%%, " +
+        "selector rebuilds=%d",
+        iterations, ioTimeNanos / 1000, taskTimeNanos / 1000, tasksRun, taskBudgetExceeded,
+        ioPercent(), selectorRebuilds);
+  }
+}
@@ -0,0 +1,69 @@
+package net;
+
+import java.nio.channels.SelectionKey;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+// Set of selected keys backed by a flat array. It is swapped into the JDK selector in place of its
+// HashSet, see EventLoop.openSelector(). The selector only ever calls add() on it, and a key is
+// added at most once per select, so there is no need to hash. EventLoop scans the array directly
+// and then reset() it, which produces no garbage.
+final class SelectedSelectionKeySet extends AbstractSet<SelectionKey> {
+  SelectionKey[] keys = new SelectionKey[1024];
+  int size;
+
+  @Override
+  public boolean add(SelectionKey key) {
+    if (key == null) {
+      return false;
+    }
+    if (size == keys.length) {
+      keys = Arrays.copyOf(keys, size << 1);
+    }
+    keys[size++] = key;
+    return true;
+  }
+
+  @Override
+  public boolean remove(Object o) {
+    return false;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    return false;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public Iterator<SelectionKey> iterator() {
+    return new Iterator<SelectionKey>() {
+      private int index;
+
+      @Override
+      public boolean hasNext() {
+        return index < size;
+      }
+
+      @Override
+      public SelectionKey next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return keys[index++];
+      }
+    };
+  }
+
+  // Clear the keys, dropping references so that closed channels can be collected.
+  void reset() {
+    Arrays.fill(keys, 0, size, null);
+    size = 0;
+  }
+}
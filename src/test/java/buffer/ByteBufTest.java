@@ -2,6 +2,7 @@ package buffer;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
@@ -11,8 +12,10 @@ import java.nio.channels.SocketChannel;
 import static org.junit.Assert.*;
 import org.junit.Test;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
 
 import buffer.ByteBuf;
+import buffer.PooledByteBufAllocator;
 
 public class ByteBufTest {
   private static final int DATA_LENGTH = 4194304 * 2 + 4194304 / 2;
@@ -246,6 +249,7 @@ public class ByteBufTest {
     int totalBytes = bf.readableBytes();
 
     ByteBuf recvBuf = ByteBuf.alloc();
+    CountDownLatch serverReady = new CountDownLatch(1);
 
     // Server thread.
     Thread t1 = new Thread(() -> {
@@ -259,6 +263,7 @@ public class ByteBufTest {
         serverChannel.bind(new InetSocketAddress("localhost", 9090));
         Selector selector = Selector.open();
         serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        serverReady.countDown();
         while (true) {
           if (selector.select() == 0) {
             continue;
@@ -305,6 +310,7 @@ public class ByteBufTest {
     // Client thread.
     Thread t2 = new Thread(() -> {
       try {
+        serverReady.await();
         SocketChannel clientChannel = SocketChannel.open();
         clientChannel.configureBlocking(false);
         clientChannel.connect(new InetSocketAddress("localhost", 9090));
@@ -339,7 +345,7 @@ public class ByteBufTest {
             }
           }
         }
-      } catch (IOException e) {
+      } catch (IOException | InterruptedException e) {
         fail(e.getMessage());
       }
     });
@@ -369,4 +375,147 @@ public class ByteBufTest {
     assertEquals(3, buf1.getLong());
     assertEquals('T', buf1.getChar());
   }
+
+  @Test
+  public void testDirectBuffer() {
+    ByteBuf bf = ByteBuf.allocDirect();
+    assertTrue(bf.isDirect());
+
+    final int range = 4096;
+    for (int i = 0; i < range; i++) {
+      bf.putInt(i);
+      bf.putDouble(i * 0.5);
+    }
+    // Buffer is still direct after growing.
+    assertTrue(bf.isDirect());
+
+    for (int i = 0; i < range; i++) {
+      assertEquals(i, bf.getInt());
+      assertEquals(i * 0.5, bf.getDouble(), 0.000001);
+    }
+
+    // Cumulate a heap buffer into a direct buffer.
+    ByteBuf heap = ByteBuf.alloc();
+    assertFalse(heap.isDirect());
+    heap.putLong(3);
+    bf.put(heap);
+    assertEquals(3, bf.getLong());
+    assertEquals(0, bf.readableBytes());
+  }
+
+  @Test
+  public void testReferenceCount() {
+    ByteBuf bf = ByteBuf.alloc();
+    assertEquals(1, bf.refCnt());
+
+    bf.retain();
+    assertEquals(2, bf.refCnt());
+    assertFalse(bf.release());
+    assertEquals(1, bf.refCnt());
+    assertTrue(bf.release());
+    assertEquals(0, bf.refCnt());
+
+    boolean exceptionCaught = false;
+    try {
+      bf.release();
+    } catch (IllegalReferenceCountException e) {
+      exceptionCaught = true;
+    } finally {
+      assertTrue(exceptionCaught);
+    }
+
+    exceptionCaught = false;
+    try {
+      bf.retain();
+    } catch (IllegalReferenceCountException e) {
+      exceptionCaught = true;
+    } finally {
+      assertTrue(exceptionCaught);
+    }
+  }
+
+  @Test
+  public void testSlice() {
+    ByteBuf bf = ByteBuf.alloc();
+    for (int i = 0; i < 10; i++) {
+      bf.putInt(i);
+    }
+    bf.getInt();
+
+    ByteBuf slice = bf.readRetainedSlice(8);
+    assertEquals(2, bf.refCnt());
+    assertEquals(2, slice.refCnt());
+    assertEquals(0, slice.readIndex());
+    assertEquals(8, slice.writeIndex());
+    assertEquals(12, bf.readIndex());
+
+    // Indexes are independent, memory is shared.
+    assertEquals(1, slice.getInt());
+    assertEquals(3, bf.getInt());
+    slice.markReadIndex();
+    assertEquals(2, slice.getInt());
+    slice.resetReadIndex();
+    ByteBuf sliceOfSlice = slice.slice(4, 4);
+    assertEquals(2, sliceOfSlice.getInt());
+
+    // A slice can not grow.
+    boolean exceptionCaught = false;
+    try {
+      slice.putInt(100);
+    } catch (BufferOverflowException e) {
+      exceptionCaught = true;
+    } finally {
+      assertTrue(exceptionCaught);
+    }
+
+    assertFalse(bf.release());
+    assertTrue(sliceOfSlice.release());
+    assertEquals(0, slice.refCnt());
+  }
+
+  @Test
+  public void testViewSurvivesGrowth() {
+    PooledByteBufAllocator allocator = new PooledByteBufAllocator(false, 1);
+    ByteBuf bf = allocator.buffer(64);
+    for (long i = 0; i < 8; i++) {
+      bf.putLong(i);
+    }
+    ByteBuf slice = bf.readSlice(8);
+    ByteBuf duplicate = bf.duplicate();
+
+    // Growing must not give the old memory back to the pool while views still read it.
+    bf.putLong(8);
+    ByteBuf other = allocator.buffer(64);
+    for (int i = 0; i < 8; i++) {
+      other.putLong(-1);
+    }
+    assertEquals(0, slice.getLong());
+    assertEquals(1, duplicate.getLong());
+    assertEquals(1, bf.getLong());
+
+    other.release();
+    assertTrue(bf.release());
+  }
+
+  @Test
+  public void testDuplicate() {
+    ByteBuf bf = ByteBuf.alloc();
+    bf.putLong(1);
+    bf.putLong(2);
+    bf.getLong();
+
+    ByteBuf duplicate = bf.duplicate();
+    assertEquals(8, duplicate.readableBytes());
+    assertEquals(2, duplicate.getLong());
+    assertEquals(8, bf.readableBytes());
+
+    // Writes of duplicate go to shared memory, but do not move indexes of parent.
+    bf.skipBytes(8);
+    duplicate.putLong(3);
+    assertEquals(0, bf.readableBytes());
+    assertEquals(16, bf.writeIndex());
+    bf.putLong(4);
+    assertEquals(4, duplicate.getLong());
+    bf.release();
+  }
 }
@@ -0,0 +1,203 @@
+package buffer;
+
+import java.nio.BufferUnderflowException;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import buffer.ByteBuf;
+import buffer.CompositeByteBuf;
+import buffer.PooledByteBufAllocator;
+
+public class CompositeByteBufTest {
+  private PooledByteBufAllocator allocator = new PooledByteBufAllocator(false, 1);
+
+  private ByteBuf bytes(int from, int to) {
+    ByteBuf buf = allocator.buffer();
+    for (int i = from; i < to; i++) {
+      buf.put((byte)i);
+    }
+    return buf;
+  }
+
+  @Test
+  public void testReadAcrossComponents() {
+    CompositeByteBuf composite = allocator.compositeBuffer();
+    ByteBuf first = allocator.buffer();
+    first.putShort((short)7);
+    first.putInt(0x01020304);
+    first.getShort();  // only readable bytes are added
+    ByteBuf second = allocator.buffer();
+    second.putLong(-5L);
+    second.putChar('R');
+
+    composite.addComponent(first);
+    composite.addComponent(second);
+    assertEquals(2, composite.numComponents());
+    assertEquals(14, composite.readableBytes());
+
+    // Int within a component, long and char spanning components.
+    assertEquals((short)0x0102, composite.getShort());
+    composite.markReadIndex();
+    byte[] dst = new byte[4];
+    composite.get(dst);
+    assertArrayEquals(new byte[] {3, 4, -1, -1}, dst);
+    composite.resetReadIndex();
+    assertEquals(0x0304ffffffffffffL, composite.getLong());
+    assertEquals((short)0xfffb, composite.getShort());
+    assertEquals('R', composite.getChar());
+    assertEquals(0, composite.readableBytes());
+
+    try {
+      composite.get();
+      fail("expect BufferUnderflowException");
+    } catch (BufferUnderflowException e) {
+    }
+    assertTrue(composite.release());
+    assertEquals(0, first.refCnt());
+    assertEquals(0, second.refCnt());
+  }
+
+  @Test
+  public void testDiscardReadComponents() {
+    CompositeByteBuf composite = allocator.compositeBuffer();
+    ByteBuf first = bytes(0, 10);
+    ByteBuf second = bytes(10, 20);
+    composite.addComponent(first);
+    composite.addComponent(second);
+
+    for (int i = 0; i < 12; i++) {
+      assertEquals(i, composite.get());
+    }
+    composite.discardReadComponents();
+    assertEquals(1, composite.numComponents());
+    assertEquals(0, first.refCnt());
+    assertEquals(8, composite.readableBytes());
+
+    composite.addComponent(bytes(20, 30));
+    for (int i = 12; i < 30; i++) {
+      assertEquals(i, composite.get());
+    }
+    composite.release();
+  }
+
+  @Test
+  public void testConsolidate() {
+    CompositeByteBuf composite = allocator.compositeBuffer(4);
+    for (int i = 0; i < 10; i++) {
+      composite.addComponent(bytes(i * 10, i * 10 + 10));
+      assertTrue(composite.numComponents() <= 4);
+    }
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, composite.get());
+    }
+    composite.release();
+  }
+
+  @Test
+  public void testWriteAndCopy() {
+    CompositeByteBuf composite = allocator.compositeBuffer();
+    composite.putInt(1);
+    composite.addComponent(bytes(0, 3));
+    composite.putInt(2);
+    composite.putDouble(3.0);
+    assertEquals(2, composite.numComponents());
+    assertEquals(19, composite.readableBytes());
+
+    ByteBuf copy = allocator.buffer();
+    copy.put(composite);
+    assertEquals(0, composite.readableBytes());
+    assertEquals(1, copy.getInt());
+    assertEquals(0, copy.get());
+    assertEquals(1, copy.get());
+    assertEquals(2, copy.get());
+    assertEquals(2, copy.getInt());
+    assertEquals(3.0, copy.getDouble(), 0.0001);
+    copy.release();
+    composite.release();
+  }
+
+  @Test
+  public void testSlice() {
+    CompositeByteBuf composite = allocator.compositeBuffer();
+    ByteBuf first = bytes(0, 10);
+    composite.addComponent(first);
+    composite.addComponent(bytes(10, 20));
+    composite.skipBytes(2);
+
+    // Within a component, the slice shares the component's reference count.
+    ByteBuf slice = composite.readRetainedSlice(4);
+    assertEquals(2, first.refCnt());
+    assertEquals(2, slice.get());
+
+    // Spanning components, they are merged first.
+    ByteBuf spanning = composite.readRetainedSlice(8);
+    assertEquals(1, composite.numComponents());
+    for (int i = 6; i < 14; i++) {
+      assertEquals(i, spanning.get());
+    }
+
+    composite.release();
+    assertEquals(3, slice.get());
+    assertTrue(slice.release());
+    assertTrue(spanning.release());
+    assertEquals(0, first.refCnt());
+  }
+
+  @Test
+  public void testDuplicate() {
+    CompositeByteBuf composite = allocator.compositeBuffer();
+    composite.addComponent(bytes(0, 10));
+    composite.addComponent(bytes(10, 20));
+    composite.skipBytes(3);
+
+    // Readable bytes span components, so they are merged first.
+    ByteBuf duplicate = composite.duplicate();
+    assertEquals(1, composite.numComponents());
+    assertEquals(3, duplicate.readIndex());
+    assertEquals(20, duplicate.writeIndex());
+    assertEquals(17, duplicate.readableBytes());
+    for (int i = 3; i < 20; i++) {
+      assertEquals(i, duplicate.get());
+    }
+    assertEquals(17, composite.readableBytes());
+
+    // Writes of duplicate go to shared memory, but do not move indexes of composite.
+    duplicate.put((byte)20);
+    assertEquals(20, composite.writeIndex());
+    composite.put((byte)21);
+    assertEquals(21, duplicate.get());
+
+    // It shares the reference count of the component.
+    duplicate.retain();
+    composite.release();
+    assertEquals(1, duplicate.refCnt());
+    assertTrue(duplicate.release());
+
+    // Memory of a single component lines up with indexes, so it is not merged.
+    composite = allocator.compositeBuffer();
+    ByteBuf first = bytes(0, 10);
+    composite.addComponent(first);
+    composite.skipBytes(4);
+    duplicate = composite.duplicate();
+    assertEquals(4, duplicate.readIndex());
+    assertEquals(10, duplicate.writeIndex());
+    assertEquals(4, duplicate.get());
+    duplicate.retain();
+    assertEquals(2, first.refCnt());
+    duplicate.release();
+
+    // Nor after discarding read components moves indexes down to it.
+    ByteBuf second = bytes(10, 20);
+    composite.addComponent(second);
+    composite.skipBytes(8);
+    composite.discardReadComponents();
+    duplicate = composite.duplicate();
+    assertEquals(composite.readIndex(), duplicate.readIndex());
+    assertEquals(composite.writeIndex(), duplicate.writeIndex());
+    assertEquals(12, duplicate.get());
+    duplicate.retain();
+    assertEquals(2, second.refCnt());
+    duplicate.release();
+    composite.release();
+  }
+}
@@ -0,0 +1,81 @@
+package buffer;
+
+import java.nio.ByteBuffer;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import buffer.ByteBuf;
+import buffer.PooledByteBufAllocator;
+
+public class PooledByteBufAllocatorTest {
+  @Test
+  public void testSizeClasses() {
+    PooledByteBufAllocator allocator = new PooledByteBufAllocator(false, 1);
+    assertEquals(64, allocator.allocateMemory(1, false).capacity());
+    assertEquals(64, allocator.allocateMemory(64, false).capacity());
+    assertEquals(128, allocator.allocateMemory(65, false).capacity());
+    assertEquals(4194304, allocator.allocateMemory(4194304, false).capacity());
+
+    // Too large to be pooled.
+    assertEquals(4194305, allocator.allocateMemory(4194305, false).capacity());
+  }
+
+  @Test
+  public void testReuseFromArena() {
+    PooledByteBufAllocator allocator = new PooledByteBufAllocator(false, 1);
+    ByteBuffer memory = allocator.allocateMemory(1000, false);
+    memory.putInt(3);
+    allocator.freeMemory(memory);
+
+    ByteBuffer reused = allocator.allocateMemory(1024, false);
+    assertSame(memory, reused);
+    assertEquals(0, reused.position());
+    assertEquals(1024, reused.limit());
+
+    // Different size class.
+    assertNotSame(memory, allocator.allocateMemory(2048, false));
+  }
+
+  @Test
+  public void testReuseFromThreadCache() throws InterruptedException {
+    PooledByteBufAllocator allocator = new PooledByteBufAllocator(false, 1);
+    ByteBuffer[] memories = new ByteBuffer[2];
+
+    Thread t = new Thread(() -> {
+      PooledByteBufAllocator.attachThreadCache();
+      try {
+        memories[0] = allocator.allocateMemory(256, false);
+        allocator.freeMemory(memories[0]);
+        memories[1] = allocator.allocateMemory(256, false);
+        allocator.freeMemory(memories[1]);
+      } finally {
+        PooledByteBufAllocator.detachThreadCache();
+      }
+    });
+    t.start();
+    t.join();
+
+    assertSame(memories[0], memories[1]);
+    // Thread cache was moved back to arena when detached.
+    assertSame(memories[0], allocator.allocateMemory(256, false));
+  }
+
+  @Test
+  public void testBufferGrowAndRelease() {
+    PooledByteBufAllocator allocator = new PooledByteBufAllocator(false, 1);
+    ByteBuf buf = allocator.buffer();
+    for (int i = 0; i < 1024; i++) {
+      buf.putInt(i);
+    }
+    for (int i = 0; i < 1024; i++) {
+      assertEquals(i, buf.getInt());
+    }
+    buf.release();
+
+    // Memory of the released buffer is the next one handed out for its size class.
+    ByteBuf other = allocator.buffer(4096);
+    other.putLong(7);
+    assertEquals(7, other.getLong());
+    assertEquals(0, other.readableBytes());
+  }
+}
@@ -0,0 +1,85 @@
+package buffer;
+
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import buffer.ResourceLeakDetector;
+import buffer.ResourceLeakTracker;
+
+public class ResourceLeakDetectorTest {
+  private ResourceLeakDetector.Level savedLevel;
+
+  private static class RecordingDetector extends ResourceLeakDetector {
+    final List<String> leaks = new ArrayList<String>();
+
+    RecordingDetector() {
+      super("Test");
+    }
+
+    @Override
+    protected void reportLeak(String records) {
+      leaks.add(records);
+    }
+  }
+
+  @Before
+  public void setUp() {
+    savedLevel = ResourceLeakDetector.getLevel();
+  }
+
+  @After
+  public void tearDown() {
+    ResourceLeakDetector.setLevel(savedLevel);
+  }
+
+  @Test
+  public void testDisabled() {
+    ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.DISABLED);
+    RecordingDetector detector = new RecordingDetector();
+    assertNull(detector.track(new Object()));
+  }
+
+  @Test
+  public void testReportLeak() throws InterruptedException {
+    ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID);
+    RecordingDetector detector = new RecordingDetector();
+
+    // Closed properly, never reported.
+    Object released = new Object();
+    ResourceLeakTracker tracker = detector.track(released);
+    assertNotNull(tracker);
+    assertTrue(tracker.close());
+    assertFalse(tracker.close());
+
+    leakObject(detector);
+    released = null;
+
+    // Leaks are reported when the next object is tracked.
+    for (int i = 0; i < 50 && detector.leaks.isEmpty(); i++) {
+      System.gc();
+      Thread.sleep(20);
+      detector.track(new Object()).close();
+    }
+    assertEquals(1, detector.leaks.size());
+    String report = detector.leaks.get(0);
+    assertTrue(report.contains("Hint: leakObject"));
+    assertTrue(report.contains("Created at:"));
+  }
+
+  private static void leakObject(ResourceLeakDetector detector) {
+    detector.track(new Object()).record("leakObject");
+  }
+
+  @Test
+  public void testByteBufTracked() {
+    ResourceLeakDetector.setLevel(ResourceLeakDetector.Level.PARANOID);
+    ByteBuf buf = new PooledByteBufAllocator(false, 1).buffer();
+    buf.retain().touch("test");
+    assertFalse(buf.release());
+    assertTrue(buf.release());
+  }
+}
@@ -0,0 +1,76 @@
+package channel;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import channel.AdaptiveRecvBufAllocator;
+
+public class AdaptiveRecvBufAllocatorTest {
+  @Test
+  public void testGrowFast() {
+    AdaptiveRecvBufAllocator recv = new AdaptiveRecvBufAllocator(64, 1024, 65536);
+    assertEquals(1024, recv.guess());
+
+    // Between half and full guess, no change.
+    recv.record(600);
+    assertEquals(1024, recv.guess());
+
+    recv.record(1024);
+    assertEquals(4096, recv.guess());
+    recv.record(4096);
+    assertEquals(16384, recv.guess());
+    recv.record(16384);
+    assertEquals(65536, recv.guess());
+    recv.record(65536);
+    assertEquals(65536, recv.guess());
+  }
+
+  @Test
+  public void testShrinkSlow() {
+    AdaptiveRecvBufAllocator recv = new AdaptiveRecvBufAllocator(64, 1024, 65536);
+    recv.record(100);
+    assertEquals(1024, recv.guess());
+    recv.record(100);
+    assertEquals(512, recv.guess());
+
+    // A large read in between resets the shrinking.
+    recv.record(100);
+    recv.record(512);
+    recv.record(100);
+    assertEquals(2048, recv.guess());
+
+    for (int i = 0; i < 100; i++) {
+      recv.record(1);
+    }
+    assertEquals(64, recv.guess());
+  }
+
+  @Test
+  public void testSizesRoundedToPowerOfTwo() {
+    AdaptiveRecvBufAllocator recv = new AdaptiveRecvBufAllocator(100, 1000, 10000);
+    assertEquals(1024, recv.guess());
+    for (int i = 0; i < 10; i++) {
+      recv.record(recv.guess());
+    }
+    assertEquals(8192, recv.guess());
+    for (int i = 0; i < 100; i++) {
+      recv.record(1);
+    }
+    assertEquals(128, recv.guess());
+  }
+
+  @Test
+  public void testGrowFromMinimum() {
+    AdaptiveRecvBufAllocator recv = new AdaptiveRecvBufAllocator(64, 1024, 65536);
+    for (int i = 0; i < 100; i++) {
+      recv.record(1);
+    }
+    assertEquals(64, recv.guess());
+
+    // A read that fills the minimum buffer grows it again.
+    recv.record(64);
+    assertEquals(256, recv.guess());
+    recv.record(256);
+    assertEquals(1024, recv.guess());
+  }
+}
@@ -0,0 +1,93 @@
+package channel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Test;
+
+import channel.ChannelHandlerContext;
+import handler.ChannelInboundHandler;
+import multithread.TaskExecutor;
+import multithread.TaskExecutorGroup;
+
+public class ChannelHandlerContextTest {
+  private TaskExecutorGroup group = new TaskExecutorGroup(2);
+
+  @After
+  public void tearDown() {
+    group.shutdown();
+    group.awaitTermination();
+  }
+
+  @Test
+  public void testHandlerOnExecutor() throws Exception {
+    int messages = 10000;
+    CountDownLatch done = new CountDownLatch(messages);
+    List<Object> received = new ArrayList<Object>();
+    List<Thread> threads = new ArrayList<Thread>();
+    ChannelInboundHandler handler = new ChannelInboundHandler() {
+      @Override
+      public void channelRead(ChannelHandlerContext ctx, Object msg) {
+        // Runs in the executor only.
+        received.add(msg);
+        if (threads.isEmpty() || threads.get(threads.size() - 1) != Thread.currentThread()) {
+          threads.add(Thread.currentThread());
+        }
+        done.countDown();
+      }
+    };
+
+    TaskExecutor executor = group.next();
+    ChannelHandlerContext header = new ChannelHandlerContext(null, null);
+    header.link(new ChannelHandlerContext(null, handler, executor));
+    for (int i = 0; i < messages; i++) {
+      header.fireChannelRead(i);
+    }
+
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    // In the order fired, all on the executor thread.
+    for (int i = 0; i < messages; i++) {
+      assertEquals(i, received.get(i));
+    }
+    assertEquals(1, threads.size());
+    assertSame(executor.thread(), threads.get(0));
+  }
+
+  @Test
+  public void testExceptionCaught() throws Exception {
+    Exception error = new Exception("broken");
+    CountDownLatch done = new CountDownLatch(1);
+    List<Throwable> caught = new ArrayList<Throwable>();
+    TaskExecutor executor = group.next();
+    ChannelHandlerContext header = new ChannelHandlerContext(null, null);
+    // The first handler passes it on by default.
+    ChannelHandlerContext passing =
+        new ChannelHandlerContext(null, new ChannelInboundHandler() {}, executor);
+    header.link(passing);
+    passing.link(new ChannelHandlerContext(null, new ChannelInboundHandler() {
+      @Override
+      public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        caught.add(cause);
+        done.countDown();
+      }
+    }, executor));
+
+    header.fireExceptionCaught(error);
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertEquals(1, caught.size());
+    assertSame(error, caught.get(0));
+  }
+
+  @Test
+  public void testGroupRoundRobin() throws Exception {
+    TaskExecutor first = group.next();
+    TaskExecutor second = group.next();
+    assertNotSame(first, second);
+    assertSame(first, group.next());
+    // Executors are started, so tasks run.
+    assertNull(second.submit(() -> { return null; }).get(1, TimeUnit.SECONDS));
+  }
+}
@@ -0,0 +1,71 @@
+package channel;
+
+import java.net.InetSocketAddress;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import bootstrap.NioServer;
+import buffer.ByteBuf;
+import buffer.PooledByteBufAllocator;
+import channel.ClientChannel;
+import channel.DefaultChannelFuture;
+import net.EventLoopGroup;
+
+public class ClientChannelTest {
+  private PooledByteBufAllocator allocator = new PooledByteBufAllocator(false, 1);
+  private EventLoopGroup group;
+
+  @Before
+  public void setUp() {
+    group = new EventLoopGroup(1);
+  }
+
+  @After
+  public void tearDown() {
+    group.shutdown();
+  }
+
+  private void checkWritesFail(ClientChannel channel) {
+    ByteBuf buf = allocator.buffer().putInt(1);
+    DefaultChannelFuture write = new DefaultChannelFuture();
+    channel.doWrite(buf, write);
+    assertEquals(0, buf.refCnt());
+    assertTrue(write.getCause() instanceof ClosedChannelException);
+
+    buf = allocator.buffer().putInt(2);
+    write = new DefaultChannelFuture();
+    channel.doWriteAndFlush(buf, write);
+    assertEquals(0, buf.refCnt());
+    assertTrue(write.getCause() instanceof ClosedChannelException);
+
+    DefaultChannelFuture flush = new DefaultChannelFuture();
+    channel.doFlush(flush);
+    assertTrue(flush.getCause() instanceof ClosedChannelException);
+  }
+
+  @Test
+  public void testWriteNeverConnected() throws Exception {
+    checkWritesFail(new ClientChannel(new NioServer().group(group)));
+  }
+
+  @Test
+  public void testWriteAfterClose() throws Exception {
+    ServerSocketChannel server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress("localhost", 0));
+    SocketChannel peer = SocketChannel.open(server.getLocalAddress());
+    SocketChannel accepted = server.accept();
+    try {
+      ClientChannel channel = new ClientChannel(new NioServer().group(group), accepted);
+      accepted.close();
+      checkWritesFail(channel);
+    } finally {
+      peer.close();
+      server.close();
+    }
+  }
+}
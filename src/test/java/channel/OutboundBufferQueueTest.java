@@ -0,0 +1,246 @@
+package channel;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import buffer.ByteBuf;
+import buffer.CompositeByteBuf;
+import buffer.PooledByteBufAllocator;
+import channel.ChannelExceptions;
+import channel.DefaultChannelFuture;
+import channel.OutboundBufferQueue;
+
+public class OutboundBufferQueueTest {
+  private PooledByteBufAllocator allocator = new PooledByteBufAllocator(false, 1);
+
+  private ServerSocketChannel server;
+  private SocketChannel writer;
+  private SocketChannel reader;
+
+  @Before
+  public void setUp() throws IOException {
+    server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress("localhost", 0));
+    writer = SocketChannel.open(server.getLocalAddress());
+    writer.configureBlocking(false);
+    reader = server.accept();
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    writer.close();
+    reader.close();
+    server.close();
+  }
+
+  private void readFully(ByteBuffer dst) throws IOException {
+    while (dst.hasRemaining()) {
+      if (reader.read(dst) < 0) {
+        fail("unexpected EOF");
+      }
+    }
+    dst.flip();
+  }
+
+  @Test
+  public void testGatheringWrite() throws Exception {
+    OutboundBufferQueue queue = new OutboundBufferQueue();
+    ByteBuf[] bufs = new ByteBuf[100];
+    for (int i = 0; i < bufs.length; i++) {
+      bufs[i] = allocator.buffer();
+      bufs[i].putInt(i);
+      queue.enqueueOutputBuf(bufs[i]);
+    }
+    // A composite buffer is gathered with all its components.
+    CompositeByteBuf composite = allocator.compositeBuffer();
+    composite.addComponent(allocator.buffer().putInt(100));
+    composite.addComponent(allocator.buffer().putInt(101));
+    queue.enqueueOutputBuf(composite);
+
+    DefaultChannelFuture promise = new DefaultChannelFuture();
+    queue.addFlush(promise);
+    queue.flushToChannel(writer);
+
+    assertTrue(queue.isEmpty());
+    assertTrue(promise.isSuccess());
+    for (ByteBuf buf : bufs) {
+      assertEquals(0, buf.refCnt());
+    }
+    assertEquals(0, composite.refCnt());
+
+    ByteBuffer received = ByteBuffer.allocate(102 * 4);
+    readFully(received);
+    for (int i = 0; i < 102; i++) {
+      assertEquals(i, received.getInt());
+    }
+  }
+
+  @Test
+  public void testPartialWrite() throws Exception {
+    OutboundBufferQueue queue = new OutboundBufferQueue();
+    int numBufs = 64;
+    int bufSize = 256 * 1024;
+    DefaultChannelFuture[] promises = new DefaultChannelFuture[numBufs];
+    for (int i = 0; i < numBufs; i++) {
+      ByteBuf buf = allocator.buffer(bufSize);
+      for (int j = 0; j < bufSize / 4; j++) {
+        buf.putInt(i * bufSize / 4 + j);
+      }
+      queue.enqueueOutputBuf(buf);
+      promises[i] = new DefaultChannelFuture();
+      queue.addFlush(promises[i]);
+    }
+
+    // 16MB does not fit in socket buffers, so flushes stop at partial writes until data is read.
+    ByteBuffer received = ByteBuffer.allocate(numBufs * bufSize);
+    assertEquals(numBufs * bufSize, queue.pendingBytes());
+    queue.flushToChannel(writer);
+    assertFalse(queue.isEmpty());
+    assertTrue(queue.pendingBytes() > 0 && queue.pendingBytes() < numBufs * bufSize);
+    assertFalse(promises[numBufs - 1].isDone());
+    while (!queue.isEmpty()) {
+      reader.read(received);
+      queue.flushToChannel(writer);
+    }
+    assertEquals(0, queue.pendingBytes());
+    for (DefaultChannelFuture promise : promises) {
+      assertTrue(promise.isSuccess());
+    }
+
+    readFully(received);
+    for (int i = 0; i < numBufs * bufSize / 4; i++) {
+      assertEquals(i, received.getInt());
+    }
+  }
+
+  @Test
+  public void testFlushMarks() throws Exception {
+    OutboundBufferQueue queue = new OutboundBufferQueue();
+    // Flushing an empty queue completes right away.
+    DefaultChannelFuture emptyFlush = new DefaultChannelFuture();
+    queue.addFlush(emptyFlush);
+    assertTrue(emptyFlush.isSuccess());
+
+    DefaultChannelFuture[] writes = new DefaultChannelFuture[40];
+    for (int i = 0; i < writes.length; i++) {
+      writes[i] = new DefaultChannelFuture();
+      queue.enqueueOutputBuf(allocator.buffer().putInt(i), writes[i]);
+      if (i == 9) {
+        queue.addFlush(new DefaultChannelFuture());
+      }
+    }
+    // Only the first 10 buffers are flushed.
+    assertTrue(queue.hasFlushed());
+    queue.flushToChannel(writer);
+    assertFalse(queue.isEmpty());
+    assertFalse(queue.hasFlushed());
+    assertEquals(30 * 4, queue.pendingBytes());
+    assertTrue(writes[9].isSuccess());
+    assertFalse(writes[10].isDone());
+
+    DefaultChannelFuture flush = new DefaultChannelFuture();
+    queue.addFlush(flush);
+    assertFalse(flush.isDone());
+    queue.flushToChannel(writer);
+    assertTrue(queue.isEmpty());
+    assertTrue(flush.isSuccess());
+    assertTrue(writes[39].isSuccess());
+
+    ByteBuffer received = ByteBuffer.allocate(40 * 4);
+    readFully(received);
+    for (int i = 0; i < 40; i++) {
+      assertEquals(i, received.getInt());
+    }
+  }
+
+  @Test
+  public void testFlushFromListener() throws Exception {
+    OutboundBufferQueue queue = new OutboundBufferQueue();
+    DefaultChannelFuture writeC = new DefaultChannelFuture();
+    // Like an echo handler, the listener of A writes and flushes C while B is not advanced yet.
+    DefaultChannelFuture writeA = new DefaultChannelFuture();
+    writeA.addListener((future) -> {
+      queue.enqueueOutputBuf(allocator.buffer().putInt(3), writeC);
+      queue.addFlush(new DefaultChannelFuture());
+      queue.flushToChannel(writer);
+    });
+    queue.enqueueOutputBuf(allocator.buffer().putInt(1), writeA);
+    queue.enqueueOutputBuf(allocator.buffer().putInt(2));
+    DefaultChannelFuture flush = new DefaultChannelFuture();
+    queue.addFlush(flush);
+    queue.flushToChannel(writer);
+
+    assertTrue(queue.isEmpty());
+    assertEquals(0, queue.pendingBytes());
+    assertEquals(3 * 4, queue.writtenBytes());
+    assertTrue(flush.isSuccess());
+    assertTrue(writeC.isSuccess());
+
+    // B is written once, followed by C and nothing else.
+    writer.close();
+    ByteBuffer received = ByteBuffer.allocate(4 * 4);
+    while (reader.read(received) >= 0) {}
+    received.flip();
+    assertEquals(3 * 4, received.remaining());
+    for (int i = 1; i <= 3; i++) {
+      assertEquals(i, received.getInt());
+    }
+  }
+
+  @Test
+  public void testReleaseAll() {
+    OutboundBufferQueue queue = new OutboundBufferQueue();
+    DefaultChannelFuture write = new DefaultChannelFuture();
+    ByteBuf buf = allocator.buffer().putInt(1);
+    queue.enqueueOutputBuf(buf, write);
+    DefaultChannelFuture flush = new DefaultChannelFuture();
+    queue.addFlush(flush);
+
+    queue.releaseAll(new Exception("closed"));
+    assertTrue(queue.isEmpty());
+    assertEquals(0, queue.pendingBytes());
+    assertEquals(0, buf.refCnt());
+    assertTrue(write.isDone() && !write.isSuccess());
+    assertTrue(flush.isDone() && !flush.isSuccess());
+  }
+
+  @Test
+  public void testWriteError() {
+    OutboundBufferQueue queue = new OutboundBufferQueue();
+    DefaultChannelFuture flushedWrite = new DefaultChannelFuture();
+    ByteBuf flushedBuf = allocator.buffer().putInt(1);
+    queue.enqueueOutputBuf(flushedBuf, flushedWrite);
+    DefaultChannelFuture flush = new DefaultChannelFuture();
+    queue.addFlush(flush);
+    // Written but not flushed yet, it fails too.
+    DefaultChannelFuture unflushedWrite = new DefaultChannelFuture();
+    ByteBuf unflushedBuf = allocator.directBuffer(4).putInt(2);
+    queue.enqueueOutputBuf(unflushedBuf, unflushedWrite);
+
+    IOException error = null;
+    try {
+      writer.close();
+      queue.flushToChannel(writer);
+    } catch (IOException e) {
+      error = e;
+    } catch (ChannelExceptions.UnexpectedException e) {
+      fail(e.toString());
+    }
+    assertNotNull(error);
+
+    assertTrue(queue.isEmpty());
+    assertEquals(0, queue.pendingBytes());
+    assertEquals(0, flushedBuf.refCnt());
+    assertEquals(0, unflushedBuf.refCnt());
+    assertSame(error, flushedWrite.getCause());
+    assertSame(error, flush.getCause());
+    assertSame(error, unflushedWrite.getCause());
+  }
+}
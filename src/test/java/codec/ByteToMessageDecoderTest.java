@@ -113,4 +113,30 @@ public class ByteToMessageDecoderTest {
     decoder.channelRead(ctx, buf);
     assertEquals(101, receiver.size());
   }
+
+  @Test
+  public void testReleaseConsumedBuffers() {
+    ChannelHandlerContext ctx = new MockChannelHandlerContext();
+    MessageDecoder decoder = new MessageDecoder();
+
+    ByteBuf buf1 = ByteBuf.alloc();
+    buf1.putInt(1);
+    buf1.putDouble(2.0);
+    buf1.putLong(3);
+
+    receiver.clear();
+    decoder.channelRead(ctx, buf1);
+    assertTrue(receiver.isEmpty());
+    assertEquals(1, buf1.refCnt());
+
+    ByteBuf buf2 = ByteBuf.alloc();
+    buf2.putChar('R');
+    buf2.putFloat((float)4.0);
+    decoder.channelRead(ctx, buf2);
+    assertEquals(1, receiver.size());
+
+    // Both buffers are fully consumed.
+    assertEquals(0, buf1.refCnt());
+    assertEquals(0, buf2.refCnt());
+  }
 }
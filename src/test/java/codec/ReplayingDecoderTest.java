@@ -124,4 +124,32 @@ public class ReplayingDecoderTest {
       assertEquals(4.0, msg.vFloat, 0.0001);
     }
   }
+
+  @Test
+  public void testReleaseConsumedBuffers() {
+    ChannelHandlerContext ctx = new MockChannelHandlerContext();
+    MessageDecoder decoder = new MessageDecoder();
+
+    ByteBuf buf1 = ByteBuf.alloc();
+    buf1.putInt(1);  // num = 1
+    buf1.putInt(1);
+    buf1.putDouble(2.0);
+
+    receiver.clear();
+    decoder.channelRead(ctx, buf1);
+    assertTrue(receiver.isEmpty());
+
+    // Rest of the message, and the start of the next one.
+    ByteBuf buf2 = ByteBuf.alloc();
+    buf2.putLong(3);
+    buf2.putChar('R');
+    buf2.putFloat((float)4.0);
+    buf2.putInt(1);
+    decoder.channelRead(ctx, buf2);
+    assertEquals(1, receiver.size());
+
+    // The checkpoint does not keep the consumed buffer.
+    assertEquals(0, buf1.refCnt());
+    assertEquals(1, buf2.refCnt());
+  }
 }
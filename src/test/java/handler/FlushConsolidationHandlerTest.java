@@ -0,0 +1,91 @@
+package handler;
+
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import channel.ChannelHandlerContext;
+import channel.ChannelPromise;
+import channel.DefaultChannelFuture;
+import channel.VoidChannelPromise;
+import handler.FlushConsolidationHandler;
+
+public class FlushConsolidationHandlerTest {
+  private List<ChannelPromise> flushes = new ArrayList<ChannelPromise>();
+
+  private class MockChannelHandlerContext extends ChannelHandlerContext {
+    public MockChannelHandlerContext() {
+      super(null, null);
+    }
+
+    @Override
+    public void flush(ChannelPromise promise) {
+      flushes.add(promise);
+    }
+
+    @Override
+    public ChannelHandlerContext fireChannelRead(Object msg) {
+      return this;
+    }
+
+    @Override
+    public ChannelHandlerContext fireChannelReadComplete() {
+      return this;
+    }
+  }
+
+  @Test
+  public void testFlushImmediatelyWithoutRead() {
+    ChannelHandlerContext ctx = new MockChannelHandlerContext();
+    FlushConsolidationHandler handler = new FlushConsolidationHandler();
+    handler.flush(ctx, new DefaultChannelFuture());
+    handler.flush(ctx, new DefaultChannelFuture());
+    assertEquals(2, flushes.size());
+  }
+
+  @Test
+  public void testConsolidateDuringRead() {
+    ChannelHandlerContext ctx = new MockChannelHandlerContext();
+    FlushConsolidationHandler handler = new FlushConsolidationHandler(3);
+
+    DefaultChannelFuture[] promises = new DefaultChannelFuture[5];
+    handler.channelRead(ctx, "request");
+    for (int i = 0; i < promises.length; i++) {
+      promises[i] = new DefaultChannelFuture();
+      handler.flush(ctx, promises[i]);
+    }
+    // The 3rd flush goes through, the other 2 wait for read complete.
+    assertEquals(1, flushes.size());
+    handler.channelReadComplete(ctx);
+    assertEquals(2, flushes.size());
+
+    // Held back promises complete with the consolidated flush.
+    assertFalse(promises[0].isDone());
+    ((DefaultChannelFuture)flushes.get(0)).setSuccess();
+    for (int i = 0; i < 3; i++) {
+      assertTrue(promises[i].isSuccess());
+    }
+    ((DefaultChannelFuture)flushes.get(1)).setFailure(new Exception("closed"));
+    assertFalse(promises[3].isSuccess());
+    assertTrue(promises[4].isDone());
+
+    // Read burst is over.
+    handler.flush(ctx, new DefaultChannelFuture());
+    assertEquals(3, flushes.size());
+  }
+
+  @Test
+  public void testConsolidateVoidPromises() {
+    ChannelHandlerContext ctx = new MockChannelHandlerContext();
+    FlushConsolidationHandler handler = new FlushConsolidationHandler();
+    handler.channelRead(ctx, "request");
+    handler.flush(ctx, ctx.voidPromise());
+    handler.flush(ctx, ctx.voidPromise());
+    handler.channelReadComplete(ctx);
+
+    // No future is allocated when nobody waits for the flushes.
+    assertEquals(1, flushes.size());
+    assertSame(VoidChannelPromise.INSTANCE, flushes.get(0));
+  }
+}
@@ -0,0 +1,148 @@
+package handler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import channel.ChannelHandlerContext;
+import channel.ChannelPromise;
+import handler.IdleState;
+import handler.IdleStateEvent;
+import handler.IdleStateHandler;
+import handler.ReadTimeoutHandler;
+import multithread.HashedWheelTimer;
+import multithread.SingleThreadExecutor;
+import multithread.TaskExecutor;
+
+public class IdleStateHandlerTest {
+  private HashedWheelTimer timer;
+  private TaskExecutor executor;
+
+  private List<IdleStateEvent> events = new ArrayList<IdleStateEvent>();
+  private CountDownLatch eventsLatch;
+  private CountDownLatch closeLatch = new CountDownLatch(1);
+
+  private class MockChannelHandlerContext extends ChannelHandlerContext {
+    public MockChannelHandlerContext() {
+      super(null, null);
+    }
+
+    @Override
+    public SingleThreadExecutor getExecutor() {
+      return IdleStateHandlerTest.this.executor;
+    }
+
+    @Override
+    public ChannelHandlerContext fireChannelActive() {
+      return this;
+    }
+
+    @Override
+    public ChannelHandlerContext fireChannelRead(Object msg) {
+      return this;
+    }
+
+    @Override
+    public ChannelHandlerContext fireChannelReadComplete() {
+      return this;
+    }
+
+    @Override
+    public ChannelHandlerContext fireUserEventTriggered(Object evt) {
+      // Runs in executor.
+      synchronized (events) {
+        events.add((IdleStateEvent)evt);
+      }
+      eventsLatch.countDown();
+      return this;
+    }
+
+    @Override
+    public void write(Object msg, ChannelPromise promise) {}
+
+    @Override
+    public void close(ChannelPromise promise) {
+      closeLatch.countDown();
+    }
+  }
+
+  @Before
+  public void setUp() {
+    timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS);
+    executor = new TaskExecutor();
+    executor.start();
+  }
+
+  @After
+  public void tearDown() {
+    timer.stop();
+    executor.stop();
+    executor.awaitTermination();
+  }
+
+  @Test
+  public void testWriterIdle() throws Exception {
+    eventsLatch = new CountDownLatch(2);
+    ChannelHandlerContext ctx = new MockChannelHandlerContext();
+    IdleStateHandler handler = new IdleStateHandler(timer, 0, 50, 0, TimeUnit.MILLISECONDS);
+    executor.execute(() -> { handler.channelActive(ctx); });
+
+    assertTrue(eventsLatch.await(1, TimeUnit.SECONDS));
+    synchronized (events) {
+      assertEquals(IdleStateEvent.FIRST_WRITER_IDLE_STATE_EVENT, events.get(0));
+      assertEquals(IdleStateEvent.WRITER_IDLE_STATE_EVENT, events.get(1));
+      assertEquals(IdleState.WRITER_IDLE, events.get(1).state());
+    }
+  }
+
+  @Test
+  public void testReadsDelayReaderIdle() throws Exception {
+    eventsLatch = new CountDownLatch(1);
+    ChannelHandlerContext ctx = new MockChannelHandlerContext();
+    IdleStateHandler handler = new IdleStateHandler(timer, 100, 0, 0, TimeUnit.MILLISECONDS);
+    long start = System.nanoTime();
+    executor.execute(() -> { handler.channelActive(ctx); });
+
+    // Keep reading for 200ms, longer than reader idle time.
+    for (int i = 0; i < 10; i++) {
+      Thread.sleep(20);
+      executor.execute(() -> {
+        handler.channelRead(ctx, "msg");
+        handler.channelReadComplete(ctx);
+      });
+    }
+    assertTrue(eventsLatch.await(1, TimeUnit.SECONDS));
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(300));
+    synchronized (events) {
+      assertEquals(IdleStateEvent.FIRST_READER_IDLE_STATE_EVENT, events.get(0));
+    }
+  }
+
+  @Test
+  public void testNoEventsAfterClose() throws Exception {
+    eventsLatch = new CountDownLatch(1);
+    ChannelHandlerContext ctx = new MockChannelHandlerContext();
+    IdleStateHandler handler = new IdleStateHandler(timer, 0, 0, 30, TimeUnit.MILLISECONDS);
+    executor.execute(() -> {
+      handler.channelActive(ctx);
+      handler.close(ctx, null);
+    });
+    assertFalse(eventsLatch.await(200, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testReadTimeout() throws Exception {
+    eventsLatch = new CountDownLatch(1);
+    ChannelHandlerContext ctx = new MockChannelHandlerContext();
+    ReadTimeoutHandler handler = new ReadTimeoutHandler(timer, 50, TimeUnit.MILLISECONDS);
+    executor.execute(() -> { handler.channelActive(ctx); });
+    assertTrue(closeLatch.await(1, TimeUnit.SECONDS));
+    // Closing replaces the idle event.
+    assertEquals(1, eventsLatch.getCount());
+  }
+}
@@ -0,0 +1,87 @@
+package multithread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import multithread.HashedWheelTimer;
+import multithread.ITimeout;
+
+public class HashedWheelTimerTest {
+  private HashedWheelTimer timer;
+
+  @Before
+  public void setUp() {
+    // A small wheel, so that timeouts take several rounds.
+    timer = new HashedWheelTimer(10, TimeUnit.MILLISECONDS, 8);
+  }
+
+  @After
+  public void tearDown() {
+    timer.stop();
+  }
+
+  @Test
+  public void testExpire() throws Exception {
+    long start = System.nanoTime();
+    CountDownLatch expired = new CountDownLatch(1);
+    long[] expiredAt = new long[1];
+    ITimeout timeout = timer.newTimeout((ITimeout t) -> {
+      expiredAt[0] = System.nanoTime();
+      expired.countDown();
+    }, 200, TimeUnit.MILLISECONDS);
+    assertFalse(timeout.isExpired());
+
+    assertTrue(expired.await(2, TimeUnit.SECONDS));
+    assertTrue(timeout.isExpired());
+    assertFalse(timeout.cancel());
+    // Expires on the first tick after its deadline.
+    long elapsed = expiredAt[0] - start;
+    assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(200));
+    assertTrue(elapsed < TimeUnit.MILLISECONDS.toNanos(400));
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+    AtomicInteger runs = new AtomicInteger();
+    CountDownLatch expired = new CountDownLatch(1000);
+    List<ITimeout> timeouts = new ArrayList<ITimeout>();
+    // Deadlines are far behind the cancel pass, so that nothing expires before it is cancelled.
+    for (int i = 0; i < 10000; i++) {
+      timeouts.add(timer.newTimeout((ITimeout t) -> {
+        runs.incrementAndGet();
+        expired.countDown();
+      }, 1000 + i % 100, TimeUnit.MILLISECONDS));
+    }
+    // Cancel all but every 10th.
+    for (int i = 0; i < timeouts.size(); i++) {
+      if (i % 10 != 0) {
+        assertTrue(timeouts.get(i).cancel());
+        assertTrue(timeouts.get(i).isCancelled());
+        assertFalse(timeouts.get(i).cancel());
+      }
+    }
+    assertTrue(expired.await(5, TimeUnit.SECONDS));
+    // Give cancelled timeouts the chance to run if they were not really removed.
+    Thread.sleep(200);
+    assertEquals(1000, runs.get());
+  }
+
+  @Test
+  public void testStopCancelsPending() throws Exception {
+    ITimeout timeout = timer.newTimeout((ITimeout t) -> { fail(); }, 10, TimeUnit.SECONDS);
+    timer.stop();
+    assertTrue(timeout.isCancelled());
+    try {
+      timer.newTimeout((ITimeout t) -> {}, 10, TimeUnit.MILLISECONDS);
+      fail();
+    } catch (IllegalStateException e) {
+    }
+  }
+}
@@ -0,0 +1,82 @@
+package multithread;
+
+import java.util.ArrayList;
+import java.util.List;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import multithread.MpscQueue;
+
+public class MpscQueueTest {
+  private static final int PRODUCERS = 4;
+  private static final int ITEMS_PER_PRODUCER = 100000;
+
+  @Test
+  public void testPollInOrder() {
+    MpscQueue<Integer> queue = new MpscQueue<Integer>();
+    assertTrue(queue.isEmpty());
+    assertNull(queue.poll());
+    for (int i = 0; i < 100; i++) {
+      queue.offer(i);
+    }
+    assertFalse(queue.isEmpty());
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, (int)queue.poll());
+    }
+    assertTrue(queue.isEmpty());
+    assertNull(queue.poll());
+  }
+
+  @Test
+  public void testDrainSnapshot() {
+    MpscQueue<Integer> queue = new MpscQueue<Integer>();
+    for (int i = 0; i < 10; i++) {
+      queue.offer(i);
+    }
+    List<Integer> drained = new ArrayList<Integer>();
+    // Elements added while draining wait for the next drain.
+    int count = queue.drain((Integer i) -> {
+      drained.add(i);
+      queue.offer(i + 10);
+    });
+    assertEquals(10, count);
+    assertEquals(10, drained.size());
+    assertFalse(queue.isEmpty());
+    assertEquals(10, queue.drain((Integer i) -> drained.add(i)));
+    for (int i = 0; i < 20; i++) {
+      assertEquals(i, (int)drained.get(i));
+    }
+  }
+
+  @Test
+  public void testMultipleProducers() throws Exception {
+    MpscQueue<Integer> queue = new MpscQueue<Integer>();
+    Thread[] producers = new Thread[PRODUCERS];
+    for (int p = 0; p < PRODUCERS; p++) {
+      int producer = p;
+      producers[p] = new Thread(() -> {
+        for (int i = 0; i < ITEMS_PER_PRODUCER; i++) {
+          queue.offer(producer * ITEMS_PER_PRODUCER + i);
+        }
+      });
+      producers[p].start();
+    }
+
+    // Items of each producer come out in the order they were offered.
+    int[] next = new int[PRODUCERS];
+    int received = 0;
+    while (received < PRODUCERS * ITEMS_PER_PRODUCER) {
+      Integer item = queue.poll();
+      if (item == null) {
+        continue;
+      }
+      int producer = item / ITEMS_PER_PRODUCER;
+      assertEquals(next[producer]++, item % ITEMS_PER_PRODUCER);
+      received++;
+    }
+    for (Thread producer : producers) {
+      producer.join();
+    }
+    assertTrue(queue.isEmpty());
+  }
+}
@@ -1,8 +1,13 @@
 package multithread;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.apache.log4j.Logger;
 import static org.junit.Assert.*;
 import org.junit.After;
@@ -11,6 +16,7 @@ import org.junit.Test;
 
 import multithread.TaskExecutor;
 import multithread.IFuture;
+import multithread.IScheduledFuture;
 
 public class TaskExecutorTest {
   private static int TASKS_NUM = 30;
@@ -88,4 +94,95 @@ public class TaskExecutorTest {
     assertTrue(future.isCancelled());
     assertTrue(future.getCause() instanceof CancellationException);
   }
+
+  @Test
+  public void testStopRunsSubmittedTasks() throws InterruptedException {
+    TaskExecutor stopping = new TaskExecutor();
+    stopping.start();
+    AtomicInteger counter = new AtomicInteger();
+    Thread[] submitters = new Thread[4];
+    for (int i = 0; i < submitters.length; i++) {
+      submitters[i] = new Thread(() -> {
+        for (int j = 0; j < 10000; j++) {
+          stopping.execute(() -> { counter.incrementAndGet(); });
+        }
+      });
+      submitters[i].start();
+    }
+    for (Thread submitter : submitters) {
+      submitter.join();
+    }
+
+    stopping.stop();
+    stopping.awaitTermination();
+    assertEquals(submitters.length * 10000, counter.get());
+    assertNull(stopping.submit(() -> {}));
+  }
+
+  @Test
+  public void testSchedule() throws Exception {
+    long start = System.nanoTime();
+    IScheduledFuture<Long> future = executor.schedule(() -> { return System.nanoTime(); },
+                                                      50, TimeUnit.MILLISECONDS);
+    assertTrue(future.getDelay(TimeUnit.MILLISECONDS) > 0);
+    assertFalse(future.isPeriodic());
+    long ranAt = future.get();
+    assertTrue(ranAt - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    assertEquals(0, future.getDelay(TimeUnit.NANOSECONDS));
+
+    // Tasks due at the same time run in order of scheduling.
+    List<Integer> order = new ArrayList<Integer>();
+    IScheduledFuture<?> last = null;
+    for (int i = 0; i < 10; i++) {
+      int index = i;
+      last = executor.schedule(() -> { order.add(index); }, 10, TimeUnit.MILLISECONDS);
+    }
+    last.get();
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i, (int)order.get(i));
+    }
+  }
+
+  @Test
+  public void testCancelScheduled() throws Exception {
+    AtomicInteger counter = new AtomicInteger();
+    IScheduledFuture<?> future =
+        executor.schedule(() -> { counter.incrementAndGet(); }, 50, TimeUnit.MILLISECONDS);
+    assertTrue(future.cancel());
+    assertTrue(future.isCancelled());
+    Thread.sleep(100);
+    assertEquals(0, counter.get());
+  }
+
+  @Test
+  public void testSchedulePeriodic() throws Exception {
+    CountDownLatch fixedRate = new CountDownLatch(5);
+    IScheduledFuture<?> rateFuture = executor.scheduleAtFixedRate(
+        () -> { fixedRate.countDown(); }, 0, 10, TimeUnit.MILLISECONDS);
+    CountDownLatch fixedDelay = new CountDownLatch(5);
+    IScheduledFuture<?> delayFuture = executor.scheduleWithFixedDelay(
+        () -> { fixedDelay.countDown(); }, 5, 10, TimeUnit.MILLISECONDS);
+    assertTrue(rateFuture.isPeriodic());
+
+    assertTrue(fixedRate.await(1, TimeUnit.SECONDS));
+    assertTrue(fixedDelay.await(1, TimeUnit.SECONDS));
+    assertFalse(rateFuture.isDone());
+    assertTrue(rateFuture.cancel());
+    assertTrue(delayFuture.cancel());
+
+    // A failed run stops a periodic task.
+    AtomicInteger runs = new AtomicInteger();
+    IScheduledFuture<?> failing = executor.scheduleAtFixedRate(() -> {
+      runs.incrementAndGet();
+      throw new RuntimeException("failed");
+    }, 0, 1, TimeUnit.MILLISECONDS);
+    try {
+      failing.get();
+      fail();
+    } catch (ExecutionException e) {
+      assertEquals("failed", e.getCause().getMessage());
+    }
+    Thread.sleep(20);
+    assertEquals(1, runs.get());
+  }
 }
@@ -0,0 +1,133 @@
+package multithread;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import multithread.IScheduledFuture;
+import multithread.VirtualThreadExecutor;
+import multithread.VirtualThreadExecutorGroup;
+
+public class VirtualThreadExecutorTest {
+  @Test
+  public void testOrderAndThread() throws Exception {
+    VirtualThreadExecutor executor = new VirtualThreadExecutor();
+    int tasks = 10000;
+    List<Integer> order = new ArrayList<Integer>();
+    boolean[] virtual = new boolean[] { true };
+    CountDownLatch done = new CountDownLatch(tasks);
+    for (int i = 0; i < tasks; i++) {
+      int task = i;
+      executor.execute(() -> {
+        // One task at a time, no need to synchronize.
+        order.add(task);
+        virtual[0] &= Thread.currentThread().isVirtual() && executor.threadRunning();
+        done.countDown();
+      });
+      if (i % 1000 == 0) {
+        // Let the executor go idle and its thread end from time to time.
+        Thread.sleep(1);
+      }
+    }
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    for (int i = 0; i < tasks; i++) {
+      assertEquals(i, (int)order.get(i));
+    }
+    assertTrue(virtual[0]);
+  }
+
+  @Test
+  public void testManyBlockingExecutors() throws Exception {
+    VirtualThreadExecutorGroup group = new VirtualThreadExecutorGroup();
+    int executors = 2000;
+    CountDownLatch done = new CountDownLatch(executors);
+    long start = System.nanoTime();
+    for (int i = 0; i < executors; i++) {
+      group.next().execute(() -> {
+        try {
+          Thread.sleep(200);
+        } catch (InterruptedException e) {
+          return;
+        }
+        done.countDown();
+      });
+    }
+    // Blocking tasks of different executors run at the same time.
+    assertTrue(done.await(5, TimeUnit.SECONDS));
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(4));
+    group.shutdown();
+  }
+
+  @Test
+  public void testScheduleAndStop() throws Exception {
+    VirtualThreadExecutor executor = new VirtualThreadExecutor();
+    CountDownLatch done = new CountDownLatch(3);
+    IScheduledFuture<?> future = executor.scheduleAtFixedRate(
+        () -> { done.countDown(); }, 10, 20, TimeUnit.MILLISECONDS);
+    assertTrue(done.await(1, TimeUnit.SECONDS));
+    assertTrue(future.cancel());
+
+    CountDownLatch ran = new CountDownLatch(1);
+    executor.execute(() -> { ran.countDown(); });
+    executor.stop();
+    assertTrue(executor.terminationFuture().await(1, TimeUnit.SECONDS).isDone());
+    assertEquals(0, ran.getCount());
+    assertNull(executor.submit(() -> {}));
+  }
+
+  @Test
+  public void testStopRacingSubmits() throws Exception {
+    Random random = new Random(1);
+    for (int round = 0; round < 5000; round++) {
+      VirtualThreadExecutor executor = new VirtualThreadExecutor();
+      AtomicInteger accepted = new AtomicInteger();
+      AtomicInteger ran = new AtomicInteger();
+      CountDownLatch start = new CountDownLatch(1);
+      Thread[] threads = new Thread[3];
+      for (int i = 0; i < threads.length - 1; i++) {
+        threads[i] = new Thread(() -> {
+          try {
+            start.await();
+          } catch (InterruptedException e) {
+            return;
+          }
+          for (int j = 0; j < 20; j++) {
+            if (executor.submit(() -> { ran.incrementAndGet(); }) != null) {
+              accepted.incrementAndGet();
+            }
+          }
+        });
+      }
+      // Stop at a random point, e.g. while a drain is about to end.
+      long spinNanos = random.nextInt(50000);
+      threads[threads.length - 1] = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        long begin = System.nanoTime();
+        while (System.nanoTime() - begin < spinNanos) {
+          // Spin.
+        }
+        executor.stop();
+      });
+      for (Thread thread : threads) {
+        thread.start();
+      }
+      start.countDown();
+      for (Thread thread : threads) {
+        thread.join();
+      }
+
+      // Terminates whatever the interleaving, after running every accepted task.
+      assertTrue(executor.terminationFuture().await(1, TimeUnit.SECONDS).isDone());
+      assertEquals(accepted.get(), ran.get());
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import bootstrap.NioServer;
+import channel.ChannelHandlerContext;
+import channel.ChannelPromise;
+import channel.ClientChannel;
+import handler.ChannelOutboundHandler;
+import multithread.TaskExecutorGroup;
+import net.EventLoop;
+import net.EventLoopChoosers;
+import net.EventLoopGroup;
+
+public class EventLoopGroupTest {
+  private void checkRoundRobin(int size) {
+    EventLoopGroup group = new EventLoopGroup(size);
+    try {
+      List<EventLoop> eventLoops = group.eventLoops();
+      assertEquals(size, eventLoops.size());
+      for (int i = 0; i < size * 3; i++) {
+        assertSame(eventLoops.get(i % size), group.next());
+      }
+    } finally {
+      group.shutdown();
+    }
+  }
+
+  @Test
+  public void testRoundRobinPowerOfTwo() {
+    checkRoundRobin(4);
+  }
+
+  @Test
+  public void testRoundRobin() {
+    checkRoundRobin(3);
+  }
+
+  @Test
+  public void testLeastLoaded() throws Exception {
+    EventLoopGroup group = new EventLoopGroup(3, EventLoopChoosers.LEAST_LOADED);
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      List<EventLoop> eventLoops = group.eventLoops();
+      // Block the first EventLoop and pile tasks up behind it.
+      EventLoop busy = eventLoops.get(0);
+      busy.execute(() -> {
+        try {
+          release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+          return;
+        }
+      });
+      for (int i = 0; i < 10; i++) {
+        busy.execute(() -> {});
+      }
+      assertTrue(busy.pendingTasks() >= 10);
+
+      for (int i = 0; i < 20; i++) {
+        assertNotSame(busy, group.next());
+      }
+    } finally {
+      release.countDown();
+      group.shutdown();
+    }
+  }
+
+  @Test
+  public void testShutdownGracefully() throws Exception {
+    EventLoopGroup group = new EventLoopGroup(2);
+    CountDownLatch done = new CountDownLatch(2);
+    for (EventLoop eventLoop : group.eventLoops()) {
+      eventLoop.execute(() -> { done.countDown(); });
+    }
+    assertTrue(group.shutdownGracefully(50, 1000, TimeUnit.MILLISECONDS)
+                    .await(2, TimeUnit.SECONDS).isDone());
+    assertEquals(0, done.getCount());
+    for (EventLoop eventLoop : group.eventLoops()) {
+      assertTrue(eventLoop.terminationFuture().isDone());
+    }
+  }
+
+  @Test
+  public void testShutdownGracefullyWaitsForClose() throws Exception {
+    EventLoopGroup group = new EventLoopGroup(1);
+    TaskExecutorGroup handlerGroup = new TaskExecutorGroup(1);
+    ServerSocketChannel server = ServerSocketChannel.open();
+    server.bind(new InetSocketAddress("localhost", 0));
+    SocketChannel peer = SocketChannel.open(server.getLocalAddress());
+    SocketChannel accepted = server.accept();
+    accepted.configureBlocking(false);
+    try {
+      ClientChannel channel = new ClientChannel(new NioServer().group(group), accepted);
+      // Close goes through another executor, and comes back to EventLoop later.
+      channel.addOutboundHandler(handlerGroup, new ChannelOutboundHandler() {
+        @Override
+        public void close(ChannelHandlerContext ctx, ChannelPromise promise) {
+          try {
+            Thread.sleep(200);
+          } catch (InterruptedException e) {
+            return;
+          }
+          ctx.close(promise);
+        }
+      });
+      CountDownLatch registered = new CountDownLatch(1);
+      channel.getEventLoop().execute(() -> {
+        try {
+          channel.register(SelectionKey.OP_READ);
+          registered.countDown();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      });
+      assertTrue(registered.await(1, TimeUnit.SECONDS));
+
+      assertTrue(group.shutdownGracefully(0, 5000, TimeUnit.MILLISECONDS)
+                      .await(6, TimeUnit.SECONDS).isDone());
+      // Terminated only after the socket is closed.
+      assertTrue(channel.closeFuture().isSuccess());
+      assertFalse(accepted.isOpen());
+      assertEquals(-1, peer.read(ByteBuffer.allocate(1)));
+    } finally {
+      handlerGroup.shutdown();
+      handlerGroup.awaitTermination();
+      peer.close();
+      accepted.close();
+      server.close();
+    }
+  }
+}
@@ -0,0 +1,208 @@
+package net;
+
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import net.EventLoop;
+import net.EventLoopMetrics;
+
+public class EventLoopTest {
+  private EventLoop eventLoop;
+
+  @Before
+  public void setUp() throws Exception {
+    eventLoop = new EventLoop();
+    eventLoop.start();
+  }
+
+  @After
+  public void tearDown() {
+    eventLoop.stop();
+    eventLoop.awaitTermination();
+  }
+
+  @Test
+  public void testTasksFromManyThreads() throws Exception {
+    int threads = 4;
+    int tasksPerThread = 20000;
+    CountDownLatch done = new CountDownLatch(threads * tasksPerThread);
+    int[] next = new int[threads];
+    boolean[] inOrder = new boolean[] { true };
+
+    Thread[] submitters = new Thread[threads];
+    for (int i = 0; i < threads; i++) {
+      int submitter = i;
+      submitters[i] = new Thread(() -> {
+        for (int j = 0; j < tasksPerThread; j++) {
+          int task = j;
+          eventLoop.execute(() -> {
+            // Tasks run in EventLoop thread only, no need to synchronize.
+            inOrder[0] &= next[submitter]++ == task;
+            done.countDown();
+          });
+          if (j % 1000 == 0) {
+            // Let EventLoop go idle and block in select from time to time.
+            try {
+              Thread.sleep(1);
+            } catch (InterruptedException e) {
+              return;
+            }
+          }
+        }
+      });
+      submitters[i].start();
+    }
+
+    // A lost wakeup leaves tasks pending in a blocking select.
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+    assertTrue(inOrder[0]);
+  }
+
+  @Test
+  public void testWakeupFromIdle() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      // Give EventLoop time to block in select.
+      Thread.sleep(1);
+      CountDownLatch done = new CountDownLatch(1);
+      eventLoop.execute(() -> { done.countDown(); });
+      assertTrue(done.await(1, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidIoRatio() {
+    eventLoop.setIoRatio(0);
+  }
+
+  @Test
+  public void testTaskBudget() {
+    assertEquals(1000, EventLoop.taskBudgetNanos(1000, 50));
+    assertEquals(250, EventLoop.taskBudgetNanos(1000, 80));
+    assertEquals(99000, EventLoop.taskBudgetNanos(1000, 1));
+    assertEquals(-1, EventLoop.taskBudgetNanos(1000, 100));
+  }
+
+  @Test
+  public void testTaskBudgetCheckInterval() throws Exception {
+    eventLoop.setIoRatio(1);
+    int tasks = 1000;
+    CountDownLatch done = new CountDownLatch(tasks);
+    // Iteration each task runs in. Metrics of an iteration are recorded after its tasks are done.
+    long[] iterations = new long[tasks + 1];
+    EventLoopMetrics metrics = eventLoop.metrics();
+    // Queue all tasks from the loop itself, so that they are pending together.
+    eventLoop.execute(() -> {
+      iterations[0] = metrics.iterations();
+      for (int i = 1; i <= tasks; i++) {
+        int task = i;
+        eventLoop.execute(() -> {
+          iterations[task] = metrics.iterations();
+          long start = System.nanoTime();
+          while (System.nanoTime() - start < 20000) {
+            // Busy for 20us.
+          }
+          done.countDown();
+        });
+      }
+    });
+    assertTrue(done.await(10, TimeUnit.SECONDS));
+
+    for (int i = 0; i < 100 && metrics.tasksRun() < tasks + 1; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(tasks + 1, metrics.tasksRun());
+    // The deadline is checked every 64 tasks, so an iteration stops at a multiple of 64, unless the
+    // queue runs empty in the last one. How many iterations it takes depends on timing.
+    int runInIteration = 1;
+    for (int i = 1; i <= tasks; i++) {
+      if (iterations[i] != iterations[i - 1]) {
+        assertEquals(0, runInIteration % 64);
+        runInIteration = 0;
+      }
+      runInIteration++;
+    }
+  }
+
+  @Test
+  public void testScheduleWakesSelect() throws Exception {
+    // EventLoop is blocking in select with no timeout when this is scheduled.
+    Thread.sleep(10);
+    long start = System.nanoTime();
+    CountDownLatch done = new CountDownLatch(3);
+    eventLoop.scheduleAtFixedRate(() -> { done.countDown(); }, 20, 20, TimeUnit.MILLISECONDS);
+    assertTrue(done.await(1, TimeUnit.SECONDS));
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(60));
+  }
+
+  @Test
+  public void testRebuildSelector() throws Exception {
+    Pipe pipe = Pipe.open();
+    pipe.source().configureBlocking(false);
+    Selector oldSelector = eventLoop.getSelector();
+    eventLoop.submit(() -> {
+      try {
+        pipe.source().register(eventLoop.getSelector(), SelectionKey.OP_READ, "attachment");
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+      eventLoop.rebuildSelector();
+    }).get();
+
+    Selector newSelector = eventLoop.getSelector();
+    assertNotSame(oldSelector, newSelector);
+    assertFalse(oldSelector.isOpen());
+    SelectionKey key = pipe.source().keyFor(newSelector);
+    assertEquals(SelectionKey.OP_READ, key.interestOps());
+    assertEquals("attachment", key.attachment());
+    assertEquals(1, eventLoop.metrics().selectorRebuilds());
+
+    // The loop still works on the new selector.
+    CountDownLatch done = new CountDownLatch(1);
+    Thread.sleep(10);
+    eventLoop.execute(() -> { done.countDown(); });
+    assertTrue(done.await(1, TimeUnit.SECONDS));
+    pipe.source().close();
+    pipe.sink().close();
+  }
+
+  @Test
+  public void testShutdownGracefully() throws Exception {
+    long quietMillis = 100;
+    eventLoop.shutdownGracefully(quietMillis, 5000, TimeUnit.MILLISECONDS);
+    assertTrue(eventLoop.isShuttingDown());
+
+    // Tasks keep coming in for longer than the quiet period. They all run.
+    CountDownLatch done = new CountDownLatch(10);
+    // The quiet period starts after the last task runs, so no earlier than its submit.
+    long lastSubmit = 0;
+    for (int i = 0; i < 10; i++) {
+      Thread.sleep(quietMillis / 2);
+      lastSubmit = System.nanoTime();
+      assertNotNull(eventLoop.submit(() -> { done.countDown(); }));
+    }
+    assertTrue(done.await(1, TimeUnit.SECONDS));
+    assertFalse(eventLoop.terminationFuture().isDone());
+
+    assertTrue(eventLoop.terminationFuture().await(2, TimeUnit.SECONDS).isDone());
+    assertTrue(System.nanoTime() - lastSubmit >= TimeUnit.MILLISECONDS.toNanos(quietMillis));
+    // Rejected after termination.
+    assertNull(eventLoop.submit(() -> {}));
+  }
+
+  @Test
+  public void testShutdownGracefullyTimeout() throws Exception {
+    // Never quiet.
+    eventLoop.scheduleAtFixedRate(() -> {}, 0, 10, TimeUnit.MILLISECONDS);
+    long start = System.nanoTime();
+    eventLoop.shutdownGracefully(100, 400, TimeUnit.MILLISECONDS);
+    assertTrue(eventLoop.terminationFuture().await(2, TimeUnit.SECONDS).isDone());
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(400));
+  }
+}
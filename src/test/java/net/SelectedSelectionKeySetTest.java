@@ -0,0 +1,47 @@
+package net;
+
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+import net.SelectedSelectionKeySet;
+
+public class SelectedSelectionKeySetTest {
+  @Test
+  public void testAddAndReset() throws Exception {
+    Selector selector = Selector.open();
+    Pipe pipe = Pipe.open();
+    pipe.source().configureBlocking(false);
+    SelectionKey key = pipe.source().register(selector, SelectionKey.OP_READ);
+    try {
+      SelectedSelectionKeySet keySet = new SelectedSelectionKeySet();
+      int count = 3000;
+      for (int i = 0; i < count; i++) {
+        assertTrue(keySet.add(key));
+      }
+      assertFalse(keySet.add(null));
+      assertEquals(count, keySet.size());
+      assertTrue(keySet.keys.length >= count);
+
+      Iterator<SelectionKey> it = keySet.iterator();
+      int iterated = 0;
+      while (it.hasNext()) {
+        assertSame(key, it.next());
+        iterated++;
+      }
+      assertEquals(count, iterated);
+
+      keySet.reset();
+      assertEquals(0, keySet.size());
+      assertNull(keySet.keys[0]);
+      assertFalse(keySet.iterator().hasNext());
+    } finally {
+      pipe.source().close();
+      pipe.sink().close();
+      selector.close();
+    }
+  }
+}